@@ -0,0 +1,492 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/*******************************************************************************
+ * Binary representation of the documents of a raw file. The file starts with a
+ * magic number and a version, followed by one record per document : the length
+ * of the record as a varint then the record itself. A record starts with the
+ * type of the document and its label, the numbers of tokens are stored as
+ * doubles and the attribute indices as zigzag varints of the difference with
+ * the previous index, which is small as they are sorted. The magic number can't
+ * start a line of the text format so both formats can be told apart.
+ * <p/>
+ * In the compressed variant, identified by its version, the records are
+ * grouped in blocks of about BLOCK_SIZE bytes compressed independently with
+ * deflate. A block starts with its compressed and uncompressed lengths and its
+ * number of documents as varints. As the blocks don't depend on each other,
+ * they can be decompressed in parallel or on their own for random access.
+ ******************************************************************************/
+final class BinaryRawFormat {
+
+	static final int MAGIC = 0x8A524157;
+
+	static final int VERSION = 1;
+
+	static final int COMPRESSED_VERSION = 2;
+
+	// uncompressed size above which a block is written
+	static final int BLOCK_SIZE = 65536;
+
+	// the rank of a document in its block is stored on 16 bits in the index
+	static final int MAX_BLOCK_DOCUMENTS = 65535;
+
+	static final int HEADER_LENGTH = 5;
+
+	static final byte SIMPLE_DOCUMENT = 1;
+
+	static final byte MULTIFIELD_DOCUMENT = 2;
+
+	private BinaryRawFormat() {
+	}
+
+	/** Returns the format of a non empty raw file * */
+	static FileTrainingCorpus.Format readFormat(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			if (file.length() < 4 || in.readInt() != MAGIC)
+				return FileTrainingCorpus.Format.TEXT;
+			int version = in.read();
+			if (version == VERSION)
+				return FileTrainingCorpus.Format.BINARY;
+			if (version == COMPRESSED_VERSION)
+				return FileTrainingCorpus.Format.COMPRESSED;
+			throw new IOException("Unsupported version of binary raw file "
+					+ file + " : " + version);
+		} finally {
+			in.close();
+		}
+	}
+
+	static void writeHeader(OutputStream out, FileTrainingCorpus.Format format)
+			throws IOException {
+		out.write(MAGIC >>> 24);
+		out.write(MAGIC >>> 16);
+		out.write(MAGIC >>> 8);
+		out.write(MAGIC);
+		out.write(format == FileTrainingCorpus.Format.COMPRESSED ? COMPRESSED_VERSION
+				: VERSION);
+	}
+
+	static void skipHeader(InputStream in) throws IOException {
+		for (int i = 0; i < HEADER_LENGTH; i++)
+			if (in.read() == -1)
+				throw new EOFException("Missing header");
+	}
+
+	/** Number of bytes used by a value written as a varint * */
+	static int vIntSize(int value) {
+		int size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	static void writeVInt(OutputStream out, int value) throws IOException {
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Reads a varint from a stream, returns -1 if the stream is at its end
+	 * before the first byte
+	 */
+	static int readVInt(InputStream in) throws IOException {
+		int value = 0;
+		int b = in.read();
+		if (b == -1)
+			return -1;
+		for (int shift = 0;; shift += 7) {
+			if (shift > 28)
+				throw new IOException("Invalid varint");
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+			b = in.read();
+			if (b == -1)
+				throw new EOFException("Truncated varint");
+		}
+	}
+
+	/** Serializes a document in a record * */
+	static void serialize(Document doc, Output record) throws IOException {
+		record.reset();
+		if (doc instanceof SimpleDocument)
+			((SimpleDocument) doc).writeBinary(record);
+		else if (doc instanceof MultiFieldDocument)
+			((MultiFieldDocument) doc).writeBinary(record);
+		else
+			throw new IOException("Can't serialize "
+					+ doc.getClass().getName());
+	}
+
+	/** Serializes a document and writes it as a record * */
+	static void writeDocument(Document doc, Output record, OutputStream out)
+			throws IOException {
+		serialize(doc, record);
+		writeVInt(out, record.size);
+		out.write(record.data, 0, record.size);
+	}
+
+	/** Number of bytes taken in the file by the last record written * */
+	static int recordSize(Output record) {
+		return vIntSize(record.size) + record.size;
+	}
+
+	/**
+	 * Reads the next record into a buffer, returns false if the stream is at
+	 * the end of the last record
+	 */
+	static boolean readRecord(InputStream in, Input record) throws IOException {
+		int length = readVInt(in);
+		if (length == -1)
+			return false;
+		record.ensureCapacity(length);
+		readFully(in, record.data, length);
+		record.pos = 0;
+		record.limit = length;
+		return true;
+	}
+
+	private static void readFully(InputStream in, byte[] data, int length)
+			throws IOException {
+		int read = 0;
+		while (read < length) {
+			int n = in.read(data, read, length - read);
+			if (n == -1)
+				throw new EOFException("Truncated record");
+			read += n;
+		}
+	}
+
+	/**
+	 * Rebuilds the document of the record starting at the current position
+	 * of a block and moves to the next record
+	 */
+	static Document readDocumentRecord(Input block) throws IOException {
+		int length = block.readVInt();
+		int end = block.pos + length;
+		if (length < 0 || end > block.limit)
+			throw new IOException("Invalid record length " + length);
+		int limit = block.limit;
+		block.limit = end;
+		Document doc = readDocument(block);
+		block.pos = end;
+		block.limit = limit;
+		return doc;
+	}
+
+	/** Moves to the record following the one at the current position * */
+	static void skipRecord(Input block) throws IOException {
+		int length = block.readVInt();
+		if (length < 0 || block.pos + length > block.limit)
+			throw new IOException("Invalid record length " + length);
+		block.pos += length;
+	}
+
+	/** Rebuilds the document held by a record * */
+	static Document readDocument(Input record) throws IOException {
+		byte type = record.readByte();
+		if (type == SIMPLE_DOCUMENT)
+			return SimpleDocument.readBinary(record);
+		if (type == MULTIFIELD_DOCUMENT)
+			return MultiFieldDocument.readBinary(record);
+		throw new IOException("Unknown document type " + type);
+	}
+
+	/** Groups the records in blocks and compresses them * */
+	static final class BlockEncoder {
+
+		private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+		private final Output block = new Output();
+
+		private byte[] compressed = new byte[BLOCK_SIZE];
+
+		private int numDocuments = 0;
+
+		/** Rank in the pending block of the next document * */
+		int numDocuments() {
+			return numDocuments;
+		}
+
+		/** Adds a record, returns true if the block should be written * */
+		boolean add(Output record) {
+			block.writeVInt(record.size);
+			block.ensureCapacity(record.size);
+			System.arraycopy(record.data, 0, block.data, block.size,
+					record.size);
+			block.size += record.size;
+			numDocuments++;
+			return block.size >= BLOCK_SIZE
+					|| numDocuments == MAX_BLOCK_DOCUMENTS;
+		}
+
+		/**
+		 * Compresses the pending records and writes them as a block, returns
+		 * the number of bytes written
+		 */
+		int flush(OutputStream out) throws IOException {
+			if (numDocuments == 0)
+				return 0;
+			deflater.reset();
+			deflater.setInput(block.data, 0, block.size);
+			deflater.finish();
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == compressed.length)
+					compressed = Arrays.copyOf(compressed, 2 * length);
+				length += deflater.deflate(compressed, length,
+						compressed.length - length);
+			}
+			writeVInt(out, length);
+			writeVInt(out, block.size);
+			writeVInt(out, numDocuments);
+			out.write(compressed, 0, length);
+			int written = vIntSize(length) + vIntSize(block.size)
+					+ vIntSize(numDocuments) + length;
+			block.reset();
+			numDocuments = 0;
+			return written;
+		}
+
+		void end() {
+			deflater.end();
+		}
+	}
+
+	/** Decompresses the blocks of a compressed raw file * */
+	static final class BlockDecoder {
+
+		private final Inflater inflater = new Inflater();
+
+		private final Input compressed = new Input();
+
+		/** Content of the last block read * */
+		final Input block = new Input();
+
+		int numDocuments;
+
+		/** Number of bytes used by the last block in the raw file * */
+		int size;
+
+		/**
+		 * Reads the block at the current position of a stream, returns false
+		 * if the stream is at its end
+		 */
+		boolean read(InputStream in) throws IOException {
+			int compressedLength = readVInt(in);
+			if (compressedLength == -1)
+				return false;
+			int length = readVInt(in);
+			numDocuments = readVInt(in);
+			if (length < 0 || numDocuments < 0)
+				throw new EOFException("Truncated block");
+			compressed.ensureCapacity(compressedLength);
+			readFully(in, compressed.data, compressedLength);
+			inflate(compressed.data, 0, compressedLength, length);
+			size = vIntSize(compressedLength) + vIntSize(length)
+					+ vIntSize(numDocuments) + compressedLength;
+			return true;
+		}
+
+		/** Reads the block held by a buffer * */
+		void read(Input data) throws IOException {
+			int start = data.pos;
+			int compressedLength = data.readVInt();
+			int length = data.readVInt();
+			numDocuments = data.readVInt();
+			if (compressedLength < 0 || data.pos + compressedLength > data.limit)
+				throw new EOFException("Truncated block");
+			inflate(data.data, data.pos, compressedLength, length);
+			size = data.pos + compressedLength - start;
+		}
+
+		private void inflate(byte[] data, int offset, int compressedLength,
+				int length) throws IOException {
+			inflater.reset();
+			inflater.setInput(data, offset, compressedLength);
+			block.ensureCapacity(length);
+			int inflated = 0;
+			try {
+				while (inflated < length) {
+					int n = inflater.inflate(block.data, inflated, length
+							- inflated);
+					if (n == 0
+							&& (inflater.finished() || inflater.needsInput() || inflater
+									.needsDictionary()))
+						throw new IOException("Corrupted block");
+					inflated += n;
+				}
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupted block", e);
+			}
+			block.pos = 0;
+			block.limit = length;
+		}
+
+		void end() {
+			inflater.end();
+		}
+	}
+
+	/** Growable buffer in which a record is serialized * */
+	static final class Output {
+
+		byte[] data = new byte[256];
+
+		int size = 0;
+
+		void reset() {
+			size = 0;
+		}
+
+		void ensureCapacity(int extra) {
+			if (size + extra > data.length)
+				data = Arrays.copyOf(data, Math.max(size + extra,
+						2 * data.length));
+		}
+
+		void writeByte(int value) {
+			ensureCapacity(1);
+			data[size++] = (byte) value;
+		}
+
+		void writeVInt(int value) {
+			ensureCapacity(5);
+			while ((value & ~0x7F) != 0) {
+				data[size++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			data[size++] = (byte) value;
+		}
+
+		void writeDouble(double value) {
+			ensureCapacity(8);
+			long bits = Double.doubleToLongBits(value);
+			for (int shift = 56; shift >= 0; shift -= 8)
+				data[size++] = (byte) (bits >>> shift);
+		}
+
+		/** Writes the indices as zigzag encoded deltas * */
+		void writeDeltas(int[] values) {
+			int previous = 0;
+			for (int value : values) {
+				int delta = value - previous;
+				writeVInt((delta << 1) ^ (delta >> 31));
+				previous = value;
+			}
+		}
+
+		void writeVInts(int[] values) {
+			for (int value : values)
+				writeVInt(value);
+		}
+	}
+
+	/** Record being decoded * */
+	static final class Input {
+
+		byte[] data;
+
+		int pos;
+
+		int limit;
+
+		Input() {
+			this(new byte[256], 0, 0);
+		}
+
+		Input(byte[] data, int pos, int limit) {
+			this.data = data;
+			this.pos = pos;
+			this.limit = limit;
+		}
+
+		/** Makes sure that the buffer can hold a number of bytes * */
+		void ensureCapacity(int length) {
+			if (data.length < length)
+				data = new byte[Math.max(length, 2 * data.length)];
+		}
+
+		byte readByte() throws IOException {
+			if (pos >= limit)
+				throw new EOFException("Record too short");
+			return data[pos++];
+		}
+
+		int readVInt() throws IOException {
+			int value = 0;
+			for (int shift = 0; shift < 35; shift += 7) {
+				byte b = readByte();
+				value |= (b & 0x7F) << shift;
+				if (b >= 0)
+					return value;
+			}
+			throw new IOException("Invalid varint");
+		}
+
+		double readDouble() throws IOException {
+			if (pos + 8 > limit)
+				throw new EOFException("Record too short");
+			long bits = 0;
+			for (int i = 0; i < 8; i++)
+				bits = (bits << 8) | (data[pos++] & 0xFF);
+			return Double.longBitsToDouble(bits);
+		}
+
+		/** Reads a number of values, checking it against the record size * */
+		int readCount() throws IOException {
+			int count = readVInt();
+			if (count < 0 || count > limit - pos)
+				throw new IOException("Invalid count " + count);
+			return count;
+		}
+
+		void readDeltas(int[] values) throws IOException {
+			int previous = 0;
+			for (int i = 0; i < values.length; i++) {
+				int zigzag = readVInt();
+				previous += (zigzag >>> 1) ^ -(zigzag & 1);
+				values[i] = previous;
+			}
+		}
+
+		void readVInts(int[] values) throws IOException {
+			for (int i = 0; i < values.length; i++)
+				values[i] = readVInt();
+		}
+	}
+
+}
@@ -18,6 +18,12 @@ package com.digitalpebble.classification;
 
 import java.util.Map;
 
+/**
+ * A document as a set of attribute IDs and their frequencies. A Document is
+ * not modified once built by a Learner or TextClassifier : generating its
+ * vector does not change it so the same instance can be vectorised by several
+ * threads at the same time, each using its own buffer.
+ **/
 public interface Document
 {
 
@@ -47,9 +53,30 @@ public interface Document
 
     /**
      * Same as above but gives a mapping for the attributes numbers
+     *
+     * @deprecated use getFeatureVector(Lexicon, int[], Vector) with a table
+     *             built once by Lexicon.toRemapTable()
      **/
+    @Deprecated
     Vector getFeatureVector(Lexicon lexicon, Map<Integer, Integer> equiv);
 
+    /**
+     * Same as getFeatureVector(Lexicon) but writes the indices and values into
+     * a buffer which can be reused for other documents, see Vector(). Only the
+     * first buffer.size() elements of the returned arrays are relevant.
+     **/
+    Vector getFeatureVector(Lexicon lexicon, Vector buffer);
+
+    /**
+     * Same as getFeatureVector(Lexicon, Vector) but the attribute numbers of
+     * the document are first translated with a remap table, as returned by
+     * Lexicon.compactAttributes(). The document is not modified so it can be
+     * vectorised again with or without the table. The attributes missing from
+     * the table (negative values or out of its bounds) are ignored. The table
+     * can be null.
+     **/
+    Vector getFeatureVector(Lexicon lexicon, int[] remap, Vector buffer);
+
     /**
      * Returns a String that can be used to serialize to/from a file
      */
@@ -16,15 +16,23 @@
 
 package com.digitalpebble.classification;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Iterator;
+import java.util.List;
 
 
 /*******************************************************************************
@@ -34,51 +42,197 @@ import java.util.Iterator;
  * allows to unload documents from memory once they've been added to the corpus.
  * In a future version we might be able to retrain a model by generating a
  * lexicon file straight from a 'raw' file thus avoiding the need for obtaining
- * the data in the first place.
+ * the data in the first place. The file is either in text format, with one
+ * document per line, or in the binary format described in BinaryRawFormat
+ * which is much cheaper to read back, optionally compressed by blocks. The
+ * position of each document is kept in a companion index file so that the
+ * corpus can be mapped in memory and its documents accessed by rank, see
+ * map().
  ******************************************************************************/
-public class FileTrainingCorpus implements TrainingCorpus {
+public class FileTrainingCorpus implements SplittableTrainingCorpus {
+
+	/** Suffix of the index file written next to a raw file * */
+	public static final String INDEX_SUFFIX = ".idx";
+
+	/** Formats of a raw file * */
+	public enum Format {
+		/** one document per line * */
+		TEXT,
+		/** varint encoded records * */
+		BINARY,
+		/** binary records in blocks compressed with deflate * */
+		COMPRESSED
+	}
 
 	private Writer raw_file_buffer;
 
+	private OutputStream raw_file_stream;
+
+	private BinaryRawFormat.Output record;
+
 	private File raw_file;
 
+	private Format format;
+
+	private BinaryRawFormat.BlockEncoder blocks;
+
+	private DataOutputStream index_stream;
+
+	// position in the raw file of the next document
+	private long position;
+
+	private int numDocuments = 0;
+
+	private boolean closed = false;
+
 	/** Get a new TrainingCorpus or an existing one if there is one already there * */
 	public FileTrainingCorpus(File rfile) throws IOException {
+		this(rfile, Format.TEXT);
+	}
+
+	/**
+	 * Get a new TrainingCorpus or an existing one if there is one already
+	 * there. The format is only used for a new file, an existing file is
+	 * appended to in its own format.
+	 */
+	public FileTrainingCorpus(File rfile, boolean binary) throws IOException {
+		this(rfile, binary ? Format.BINARY : Format.TEXT);
+	}
+
+	/**
+	 * Get a new TrainingCorpus or an existing one if there is one already
+	 * there. The format is only used for a new file, an existing file is
+	 * appended to in its own format.
+	 */
+	public FileTrainingCorpus(File rfile, Format format) throws IOException {
 		// create a raw file in the working directory
 		this.raw_file = rfile;
-		
-		if (rfile.exists()) {
-			// try to load it
-			try {
-				Iterator iter = iterator();
-				while (iter.hasNext()) {
-					iter.next();
+		this.format = format;
+
+		if (rfile.exists() && rfile.length() > 0) {
+			this.format = BinaryRawFormat.readFormat(rfile);
+			// trust the index if the corpus has been closed properly
+			// otherwise try to load it and index its documents
+			numDocuments = RawFileIndex.openTrailer(rfile, this.format);
+			if (numDocuments == -1) {
+				try {
+					numDocuments = RawFileIndex.rebuild(rfile, this.format);
+				} catch (Exception e) {
+					throw new IOException(
+							"Exception when reading existing raw file");
 				}
-			} catch (Exception e) {
-				throw new IOException("Exception when reading existing raw file");
 			}
-		}
+			index_stream = RawFileIndex.openIndex(rfile, true);
+		} else
+			index_stream = RawFileIndex.openIndex(rfile, false);
+
+		position = rfile.length();
+		if (this.format != Format.TEXT) {
+			raw_file_stream = new BufferedOutputStream(new FileOutputStream(
+					rfile, true), 65536);
+			if (position == 0) {
+				BinaryRawFormat.writeHeader(raw_file_stream, this.format);
+				position = BinaryRawFormat.HEADER_LENGTH;
+			}
+			record = new BinaryRawFormat.Output();
+			if (this.format == Format.COMPRESSED)
+				blocks = new BinaryRawFormat.BlockEncoder();
+		} else
+			raw_file_buffer = new BufferedWriter(new FileWriter(rfile, true));
+	}
 
-		raw_file_buffer = new BufferedWriter(new FileWriter(rfile,true));
+	/** Returns true if the documents are stored in binary format * */
+	public boolean isBinary() {
+		return format != Format.TEXT;
+	}
+
+	public Format getFormat() {
+		return format;
 	}
 
 	// add a vectorial representation of the document to the file
 	// there is exactly one document per line
 	public void addDocument(Document doc) throws IOException {
+		numDocuments++;
+		if (format == Format.COMPRESSED) {
+			// position of the block and rank of the document in it
+			index_stream.writeLong(position << 16 | blocks.numDocuments());
+			BinaryRawFormat.serialize(doc, record);
+			if (blocks.add(record))
+				position += blocks.flush(raw_file_stream);
+			return;
+		}
+		index_stream.writeLong(position);
+		if (format == Format.BINARY) {
+			BinaryRawFormat.writeDocument(doc, record, raw_file_stream);
+			position += BinaryRawFormat.recordSize(record);
+			return;
+		}
 		// needs to differenciate SimpleDocuments from MultiField ones
 		// each class has its own way of serializing
 		String serial = doc.getStringSerialization();
 		raw_file_buffer.write(serial);
+		// the serialization is made of ASCII characters only
+		position += serial.length();
+	}
+
+	/** Number of documents in the corpus * */
+	public int getNumDocuments() {
+		return numDocuments;
+	}
+
+	/**
+	 * Returns a read-only view of the documents added so far, mapped in
+	 * memory and accessible by their rank
+	 */
+	public MappedTrainingCorpus map() throws IOException {
+		if (!closed) {
+			if (format == Format.COMPRESSED)
+				position += blocks.flush(raw_file_stream);
+			if (format != Format.TEXT)
+				raw_file_stream.flush();
+			else
+				raw_file_buffer.flush();
+			index_stream.flush();
+		}
+		return new MappedTrainingCorpus(raw_file, format, numDocuments);
+	}
+
+	/**
+	 * Splits the documents added so far at document boundaries into at most
+	 * numSplits parts covering about the same number of bytes of the raw file
+	 */
+	public List<TrainingCorpus> split(int numSplits) throws IOException {
+		return map().split(numSplits);
 	}
 
 	public void close() {
+		if (closed)
+			return;
+		closed = true;
+		try {
+			if (format == Format.COMPRESSED) {
+				position += blocks.flush(raw_file_stream);
+				blocks.end();
+			}
+			if (format != Format.TEXT)
+				raw_file_stream.close();
+			else
+				raw_file_buffer.close();
+			// no trailer if the raw file is incomplete
+			RawFileIndex.writeTrailer(index_stream, raw_file, numDocuments);
+		} catch (IOException e) {
+		}
 		try {
-			raw_file_buffer.close();
+			index_stream.close();
 		} catch (IOException e) {
 		}
 	}
 
 	public Iterator<Document> iterator() {
+		if (format != Format.TEXT)
+			return new BinaryTrainingCorpusIterator(raw_file,
+					format == Format.COMPRESSED);
 		return new FileTrainingCorpusIterator(raw_file);
 	}
 
@@ -106,12 +260,7 @@ class FileTrainingCorpusIterator implements java.util.Iterator<Document> {
 			while ((line = reader.readLine()) != null) {
 				// convert line into document
 				// if problem set cache to null
-				Document freshDoc = null;
-				if (line.startsWith("SimpleDocument")) {
-					freshDoc = SimpleDocument.parse(line);
-				} else if (line.startsWith("MultiFieldDocument")) {
-					freshDoc = MultiFieldDocument.parse(line);
-				}
+				Document freshDoc = RawFileIndex.parse(line);
 				if (freshDoc != null) {
 					cache = freshDoc;
 					return;
@@ -146,3 +295,81 @@ class FileTrainingCorpusIterator implements java.util.Iterator<Document> {
 	}
 
 }
+
+// rebuild documents from a binary raw file
+class BinaryTrainingCorpusIterator implements java.util.Iterator<Document> {
+
+	private InputStream input;
+
+	private final BinaryRawFormat.Input record = new BinaryRawFormat.Input();
+
+	// decompresses the blocks of a compressed file
+	private BinaryRawFormat.BlockDecoder blocks;
+
+	// documents left in the current block
+	private int blockDocuments = 0;
+
+	private Document cache;
+
+	BinaryTrainingCorpusIterator(File f, boolean compressed) {
+		try {
+			input = new BufferedInputStream(new FileInputStream(f), 65536);
+			BinaryRawFormat.skipHeader(input);
+		} catch (IOException e) {
+			throw new RuntimeException("Can't open raw file " + f, e);
+		}
+		if (compressed)
+			blocks = new BinaryRawFormat.BlockDecoder();
+		fillCache();
+	}
+
+	private void fillCache() {
+		try {
+			if (blocks != null) {
+				while (blockDocuments == 0) {
+					if (!blocks.read(input)) {
+						cache = null;
+						return;
+					}
+					blockDocuments = blocks.numDocuments;
+				}
+				cache = BinaryRawFormat.readDocumentRecord(blocks.block);
+				blockDocuments--;
+			} else if (BinaryRawFormat.readRecord(input, record))
+				cache = BinaryRawFormat.readDocument(record);
+			else
+				cache = null;
+		} catch (IOException e) {
+			// unlike a text line, a broken record can't be skipped
+			close();
+			throw new RuntimeException("Corrupted binary raw file", e);
+		}
+	}
+
+	private void close() {
+		try {
+			input.close();
+		} catch (IOException e) {
+		}
+		if (blocks != null)
+			blocks.end();
+	}
+	public boolean hasNext() {
+		if (cache == null) {
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	public Document next() {
+		Document temp = cache;
+		fillCache();
+		return temp;
+	}
+
+	public void remove() {
+		throw new RuntimeException("Remove operation not supported");
+	}
+
+}
@@ -50,6 +50,23 @@ public abstract class Learner
      */
     protected File workdirectory;
 
+    /**
+     * 训练时是否写出向量文件 whether learners which train directly on the
+     * corpus also write the vector file, e.g. for debugging
+     */
+    protected boolean writeVectorFile = false;
+
+    /**
+     * 原始文件的格式 format of a new raw file
+     */
+    private FileTrainingCorpus.Format rawFileFormat = FileTrainingCorpus.Format.TEXT;
+
+    /**
+     * 读取语料库的线程数 number of threads used for the passes over a corpus
+     * which can be split, see SplittableTrainingCorpus
+     */
+    protected int numThreads = 1;
+
     private int keepNBestAttributes = -1;
 
     /**
@@ -81,6 +98,16 @@ public abstract class Learner
         this.lexicon.setNormalizeVector(norm);
     }
 
+    /**
+     * 是否以二进制格式保存词表
+     * Specify whether the lexicon is saved in binary format, in which case it
+     * is memory mapped by the classifier instead of being parsed
+     */
+    public void setBinaryLexicon(boolean binary)
+    {
+        this.lexicon.setBinaryFormat(binary);
+    }
+
     /**
      * 过滤单词
      * This must be called between the creation of the documents and the
@@ -154,10 +181,21 @@ public abstract class Learner
 
     protected abstract String getClassifierType();
 
-    public void learn(TrainingCorpus corpus) throws Exception
+    /**
+     * Trains a model on a corpus. The default implementation writes the
+     * vector file then learns from it; learners which can train directly on
+     * the documents of the corpus override this method.
+     **/
+    protected void internal_learn(TrainingCorpus corpus) throws Exception
     {
-        generateVectorFile(corpus);
+        internal_generateVector(corpus);
         internal_learn();
+    }
+
+    public void learn(TrainingCorpus corpus) throws Exception
+    {
+        prepareLexicon(corpus);
+        internal_learn(corpus);
         // save the lexicon so that we can get the linear weights for the
         // attributes
         this.lexicon.saveToFile(this.lexiconLocation);
@@ -172,7 +210,17 @@ public abstract class Learner
      **************************************************************************/
     public void generateVectorFile(TrainingCorpus corpus) throws Exception
     {
+        prepareLexicon(corpus);
+        // action specific to each learner implementation
+        internal_generateVector(corpus);
+    }
 
+    /**
+     * Checks the labels, filters the attributes and saves the lexicon before
+     * a model is built
+     **/
+    private void prepareLexicon(TrainingCorpus corpus) throws Exception
+    {
         if (this.lexicon.getLabelNum() < 2)
         {
             throw new Exception(
@@ -201,15 +249,12 @@ public abstract class Learner
             // this.lexicon.setLogLikelihoodRatio(scores);
             // this.lexicon.keepTopNAttributesLLR(keepNBestAttributes);
             AttributeScorer scorer = logLikelihoodAttributeScorer.getScorer(
-                    corpus, lexicon);
+                    corpus, lexicon, numThreads);
             this.lexicon.setAttributeScorer(scorer);
             this.lexicon.applyAttributeFilter(scorer, keepNBestAttributes);
         }
         // saves the lexicon
         this.lexicon.saveToFile(this.lexiconLocation);
-
-        // action specific to each learner implementation
-        internal_generateVector(corpus);
     }
 
     public boolean saveLexicon()
@@ -232,7 +277,43 @@ public abstract class Learner
     public FileTrainingCorpus getFileTrainingCorpus() throws IOException
     {
         File raw_file = new File(workdirectory, Parameters.rawName);
-        return new FileTrainingCorpus(raw_file);
+        return new FileTrainingCorpus(raw_file, rawFileFormat);
+    }
+
+    /**
+     * 设置线程数
+     * Specify the number of threads used when scoring the attributes and
+     * writing the vector file for a corpus which can be split, e.g.
+     * Runtime.getRuntime().availableProcessors(). The output does not depend
+     * on the number of threads except for rounding differences in the
+     * attribute scores.
+     */
+    public void setNumThreads(int numThreads)
+    {
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * 是否以二进制格式保存原始文件
+     * Specify whether a new raw file is written in binary format, which is
+     * faster to read when generating the vectors. An existing raw file keeps
+     * its format.
+     */
+    public void setBinaryRawFile(boolean binary)
+    {
+        this.rawFileFormat = binary ? FileTrainingCorpus.Format.BINARY
+                : FileTrainingCorpus.Format.TEXT;
+    }
+
+    /**
+     * 设置原始文件的格式
+     * Specify the format of a new raw file, e.g. COMPRESSED for large corpora
+     * whose reading is limited by the disk. An existing raw file keeps its
+     * format.
+     */
+    public void setRawFileFormat(FileTrainingCorpus.Format format)
+    {
+        this.rawFileFormat = format;
     }
 
     /**
@@ -264,6 +345,8 @@ public abstract class Learner
                 + Parameters.vectorName;
         String raw_file_name = workdirectory + File.separator
                 + Parameters.rawName;
+        String quantised_file_name = workdirectory + File.separator
+                + Parameters.quantisedModelName;
         Learner learner = null;
 
         // 删掉已存在的模型 removes existing files for lexicon model and vector
@@ -273,6 +356,9 @@ public abstract class Learner
             removeExistingFile(lexicon_file_name);
             removeExistingFile(vector_file_name);
             removeExistingFile(raw_file_name);
+            removeExistingFile(raw_file_name
+                                       + FileTrainingCorpus.INDEX_SUFFIX);
+            removeExistingFile(quantised_file_name);
         }
 
         // 决定使用哪种算法 define which implementation to use
@@ -314,6 +400,16 @@ public abstract class Learner
         this.parameters = parameters;
     }
 
+    /**
+     * Makes the learners which train directly on the documents of the corpus
+     * write the vector file as well. The learners which rely on the vector
+     * file always write it.
+     */
+    public void setWriteVectorFile(boolean writeVectorFile)
+    {
+        this.writeVectorFile = writeVectorFile;
+    }
+
     /**
      * 删除单个文件
      *
@@ -16,39 +16,79 @@
 
 package com.digitalpebble.classification;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 import com.digitalpebble.classification.Parameters.WeightingMethod;
+import com.digitalpebble.classification.util.FrontCodedTermDictionary;
+import com.digitalpebble.classification.util.MappedTermDictionary;
+import com.digitalpebble.classification.util.StringIntHashMap;
+import com.digitalpebble.classification.util.TermDictionary;
 import com.digitalpebble.classification.util.scorers.AttributeScorer;
 
 /**
  * 一个词表，保证在训练和分类两个阶段的相同映射
  * A lexicon contains all the information about the tokens used during learning
- * and ensures that the same mapping is used during classification
+ * and ensures that the same mapping is used during classification. A lexicon
+ * can be frozen once it is not expected to change anymore, after which it is
+ * safe for concurrent reads from several threads.
  */
 public class Lexicon
 {
 
-    private TreeMap<String, int[]> tokenForm2index;
+    /**
+     * first bytes of a lexicon saved in binary format
+     */
+    private static final int BINARY_MAGIC = 0x54434C58;
+
+    private static final int BINARY_VERSION = 1;
+
+    private TermDictionary tokenForm2index;
 
     /**
      * 下标到在每个文件中的频率
+     * document frequency indexed by attribute ID, 0 for unknown attributes
+     */
+    private int[] index2docfreq;
+
+    /**
+     * doc freqs and IDF of a lexicon loaded from a binary file, read straight
+     * from the memory mapped file. Set to null once the content is copied on
+     * the heap prior to a modification.
+     */
+    private IntBuffer mappedDocFreq;
+
+    private DoubleBuffer mappedIDF;
+
+    /**
+     * whether saveToFile(String) uses the binary format
      */
-    private TreeMap<Integer, int[]> index2docfreq;
+    private boolean binaryFormat = false;
 
     private int nextAttributeID = 1;
 
@@ -86,11 +126,30 @@ public class Lexicon
 
     private AttributeScorer filter;
 
+    /**
+     * set by freeze() : the lexicon can't be modified anymore
+     */
+    private boolean frozen = false;
+
+    // built when freezing
+    private String[] labelArray;
+
+    private String[] fieldNames;
+
+    private WeightingMethod[] fieldMethods;
+
+    // built when freezing or on demand by getIDFs() unless the IDF
+    // are read from a memory mapped file
+    // reset whenever the lexicon is modified
+    // volatile as the vectors of a corpus can be computed by several
+    // threads on a lexicon which is not frozen
+    private volatile double[] idf;
+
     // creates a new lexicon
     public Lexicon()
     {
-        tokenForm2index = new TreeMap<String, int[]>();
-        index2docfreq = new TreeMap();
+        tokenForm2index = new StringIntHashMap();
+        index2docfreq = new int[16];
         labels = new ArrayList<String>();
     }
 
@@ -106,6 +165,94 @@ public class Lexicon
         this.loadFromFile(file);
     }
 
+    /**
+     * Makes the lexicon read-only : the internal structures are trimmed to size
+     * and the per-field weighting schemes and IDF values are precomputed. Any
+     * further attempt to modify the lexicon throws a RuntimeException. A frozen
+     * lexicon can be read by several threads concurrently provided that it is
+     * safely published e.g. via TextClassifier.getClassifier()
+     **/
+    public Lexicon freeze()
+    {
+        return freeze(false);
+    }
+
+    /**
+     * Same as freeze() but can also store the terms in a front coded
+     * dictionary, which takes several times less memory than the hash table
+     * for a slightly slower lookup. This has no effect on a lexicon loaded
+     * from a binary file as its terms are not on the heap.
+     **/
+    public Lexicon freeze(boolean compressTerms)
+    {
+        if (frozen)
+            return this;
+        if (mappedDocFreq == null)
+        {
+            StringIntHashMap index = (StringIntHashMap) tokenForm2index;
+            if (compressTerms)
+            {
+                String[] terms = index.sortedKeys();
+                int[] termIDs = new int[terms.length];
+                for (int i = 0; i < terms.length; i++)
+                    termIDs[i] = index.get(terms[i]);
+                tokenForm2index = new FrontCodedTermDictionary(terms, termIDs);
+            }
+            else
+                index.trimToSize();
+            if (index2docfreq.length > nextAttributeID)
+                index2docfreq = Arrays.copyOf(index2docfreq, nextAttributeID);
+        }
+        labelArray = getLabels();
+        labels = Collections.unmodifiableList(Arrays.asList(labelArray));
+        fieldNames = getFields();
+        fieldMethods = new WeightingMethod[fieldNames.length];
+        for (int f = 0; f < fieldNames.length; f++)
+            fieldMethods[f] = getMethod(fieldNames[f]);
+        // the mapped IDF are shared with the other processes
+        // through the page cache and are not copied on the heap
+        idf = heapIDFs();
+        // only needed when learning
+        filter = null;
+        frozen = true;
+        return this;
+    }
+
+    public boolean isFrozen()
+    {
+        return frozen;
+    }
+
+    private void checkNotFrozen()
+    {
+        if (frozen)
+            throw new RuntimeException("Lexicon is frozen and can't be modified");
+        // about to be modified
+        idf = null;
+    }
+
+    /**
+     * Returns the token index for modification, copying the content of a
+     * memory mapped lexicon on the heap first if necessary
+     **/
+    private StringIntHashMap editableIndex()
+    {
+        checkNotFrozen();
+        if (mappedDocFreq == null)
+            return (StringIntHashMap) tokenForm2index;
+        MappedTermDictionary mapped = (MappedTermDictionary) tokenForm2index;
+        StringIntHashMap index = new StringIntHashMap(mapped.size());
+        for (int rank = 0; rank < mapped.size(); rank++)
+            index.put(mapped.getTerm(rank), mapped.getID(rank));
+        int[] docfreq = new int[mappedDocFreq.capacity()];
+        mappedDocFreq.duplicate().get(docfreq);
+        tokenForm2index = index;
+        index2docfreq = docfreq;
+        mappedDocFreq = null;
+        mappedIDF = null;
+        return index;
+    }
+
     /**
      * Adjust the indices of the attributes so that maxAttributeID ==
      * getAttributesNum. Returns a Map containing the mapping between the old
@@ -113,31 +260,111 @@ public class Lexicon
      **/
     public Map<Integer, Integer> compact()
     {
+        int[] remap = compactAttributes();
         Map<Integer, Integer> equiv = new HashMap<Integer, Integer>();
+        for (int oldIndex = 0; oldIndex < remap.length; oldIndex++)
+        {
+            if (remap[oldIndex] != -1)
+                equiv.put(oldIndex, remap[oldIndex]);
+        }
+        return equiv;
+    }
 
-        TreeMap<Integer, int[]> newIndex2docfreq = new TreeMap<Integer, int[]>();
+    /**
+     * Same as compact() but returns the mapping as a remap table : the new
+     * index of an attribute is found at the position of its old index, -1 if
+     * it is not in the lexicon anymore. See
+     * Document.getFeatureVector(Lexicon, int[], Vector)
+     **/
+    public int[] compactAttributes()
+    {
+        StringIntHashMap index = editableIndex();
+        int[] remap = new int[nextAttributeID];
+        Arrays.fill(remap, -1);
 
-        // iterate on the map token -> Id and change the latter
-        Iterator<Entry<String, int[]>> iter = tokenForm2index.entrySet().iterator();
+        int[] newIndex2docfreq = new int[tokenForm2index.size() + 1];
+
+        // iterate on the tokens in alphabetical order and change their Id
+        String[] terms = index.sortedKeys();
         nextAttributeID = 1;
-        while (iter.hasNext())
+        for (String term : terms)
         {
-            Entry<String, int[]> entry = iter.next();
-            int oldIndex = entry.getValue()[0];
+            int oldIndex = index.get(term);
             int newIndex = nextAttributeID;
-            entry.setValue(new int[]{newIndex});
-            // store the equivalence in the map
-            equiv.put(oldIndex, newIndex);
+            index.put(term, newIndex);
+            // store the equivalence in the table
+            remap[oldIndex] = newIndex;
             // populate the doc freq
-            int[] docFreq = index2docfreq.get(oldIndex);
-            newIndex2docfreq.put(newIndex, docFreq);
+            newIndex2docfreq[newIndex] = index2docfreq[oldIndex];
             nextAttributeID++;
         }
 
         // swap the doc freq
         index2docfreq = newIndex2docfreq;
 
-        return equiv;
+        return remap;
+    }
+
+    /**
+     * Removes the attributes whose index is not marked in keep and renumbers
+     * the remaining ones from 1. Unlike compactAttributes() the attributes
+     * keep the order of their indices, so the vectors of the documents list
+     * their attributes in the same order as before. Returns the remap table,
+     * see compactAttributes().
+     **/
+    public int[] retainAttributes(boolean[] keep)
+    {
+        StringIntHashMap index = editableIndex();
+        String[] terms = index.sortedKeys();
+        boolean[] retained = new boolean[nextAttributeID];
+        for (String term : terms)
+        {
+            int oldIndex = index.get(term);
+            if (oldIndex < keep.length && keep[oldIndex])
+                retained[oldIndex] = true;
+            else
+                index.remove(term);
+        }
+
+        int[] remap = new int[nextAttributeID];
+        Arrays.fill(remap, -1);
+        int[] newIndex2docfreq = new int[index.size() + 1];
+        double[] newLinearWeight = linearWeight != null ? new double[index
+                .size() + 1] : null;
+        int newIndex = 1;
+        for (int oldIndex = 1; oldIndex < retained.length; oldIndex++)
+        {
+            if (!retained[oldIndex])
+                continue;
+            remap[oldIndex] = newIndex;
+            newIndex2docfreq[newIndex] = index2docfreq[oldIndex];
+            if (newLinearWeight != null && oldIndex < linearWeight.length)
+                newLinearWeight[newIndex] = linearWeight[oldIndex];
+            newIndex++;
+        }
+        for (String term : index.sortedKeys())
+            index.put(term, remap[index.get(term)]);
+
+        nextAttributeID = newIndex;
+        index2docfreq = newIndex2docfreq;
+        linearWeight = newLinearWeight;
+        return remap;
+    }
+
+    /**
+     * Converts a mapping between old and new attribute indices as returned by
+     * compact() into a remap table
+     **/
+    public static int[] toRemapTable(Map<Integer, Integer> equiv)
+    {
+        int length = 0;
+        for (Integer oldIndex : equiv.keySet())
+            length = Math.max(length, oldIndex.intValue() + 1);
+        int[] remap = new int[length];
+        Arrays.fill(remap, -1);
+        for (Map.Entry<Integer, Integer> entry : equiv.entrySet())
+            remap[entry.getKey().intValue()] = entry.getValue().intValue();
+        return remap;
     }
 
     /**
@@ -152,6 +379,31 @@ public class Lexicon
         return this.method_used;
     }
 
+    /**
+     * Returns the weighting scheme used for a field given its ID
+     **/
+    public WeightingMethod getMethod(int fieldNum)
+    {
+        if (frozen)
+            return fieldMethods[fieldNum];
+        return getMethod(getFields()[fieldNum]);
+    }
+
+    /**
+     * Returns the weighting schemes of all the fields indexed by their ID. The
+     * array must not be modified.
+     **/
+    public WeightingMethod[] getMethods()
+    {
+        if (frozen)
+            return fieldMethods;
+        String[] names = getFields();
+        WeightingMethod[] methods = new WeightingMethod[names.length];
+        for (int f = 0; f < names.length; f++)
+            methods[f] = getMethod(names[f]);
+        return methods;
+    }
+
     /**
      * Returns the default weighting scheme
      **/
@@ -165,6 +417,7 @@ public class Lexicon
      **/
     public void setMethod(WeightingMethod method)
     {
+        checkNotFrozen();
         this.method_used = method;
     }
 
@@ -173,6 +426,7 @@ public class Lexicon
      **/
     public void setMethod(WeightingMethod method, String fieldName)
     {
+        checkNotFrozen();
         WeightingMethod existingmethod = this.customWeights.get(fieldName);
         if (existingmethod == null)
         {
@@ -203,6 +457,7 @@ public class Lexicon
             // field does not exist
             if (!create)
                 return new Integer(-1);
+            checkNotFrozen();
             fields.put(fieldName, ++lastFieldId);
             return Integer.valueOf(lastFieldId);
         }
@@ -211,6 +466,8 @@ public class Lexicon
 
     public String[] getFields()
     {
+        if (frozen)
+            return fieldNames.clone();
         String[] ff = new String[fields.size()];
         Iterator iter = fields.keySet().iterator();
         while (iter.hasNext())
@@ -224,6 +481,8 @@ public class Lexicon
 
     public String[] getLabels()
     {
+        if (frozen)
+            return labelArray.clone();
         String[] labs = new String[labels.size()];
         for (int l = 0; l < labels.size(); l++)
             labs[l] = (String) labels.get(l);
@@ -235,7 +494,10 @@ public class Lexicon
      */
     public void incrementDocCount()
     {
+        checkNotFrozen();
         this.docNum++;
+        // the precomputed values are not valid anymore
+        this.mappedIDF = null;
     }
 
     /**
@@ -248,10 +510,7 @@ public class Lexicon
     public int getIndex(String tokenForm)
     {
         // tokenForm = tokenForm.replaceAll("\\W+", "_");
-        int[] index = (int[]) tokenForm2index.get(tokenForm);
-        if (index == null)
-            return -1;
-        return index[0];
+        return tokenForm2index.get(tokenForm);
     }
 
     /***************************************************************************
@@ -260,27 +519,93 @@ public class Lexicon
      **************************************************************************/
     public int getDocFreq(int term)
     {
-        int[] docfreq = (int[]) this.index2docfreq.get(Integer.valueOf(term));
-        if (docfreq == null)
+        if (mappedDocFreq != null)
+        {
+            if (term < 0 || term >= mappedDocFreq.capacity())
+                return 0;
+            return mappedDocFreq.get(term);
+        }
+        if (term < 0 || term >= index2docfreq.length)
             return 0;
-        return docfreq[0];
+        return index2docfreq[term];
+    }
+
+    /**
+     * Returns the inverse document frequency of a term i.e. the log of the
+     * number of documents divided by its document frequency
+     **/
+    public double getIDF(int term)
+    {
+        double[] values = idf;
+        if (values != null && term >= 0 && term < values.length)
+            return values[term];
+        if (mappedIDF != null && term >= 0 && term < mappedIDF.capacity())
+            return mappedIDF.get(term);
+        return computeIDF(term);
+    }
+
+    /**
+     * Returns the IDF of all the attributes indexed by their ID. The values are
+     * computed once and kept until the lexicon is modified so the array must
+     * not be modified. Its length can be lower than the ID of a term whose
+     * document frequency is 0. The IDF of a lexicon loaded from a binary file
+     * are copied from the mapped file on every call, getIDF(int) reads them
+     * without copying.
+     **/
+    public double[] getIDFs()
+    {
+        double[] values = heapIDFs();
+        if (values != null)
+            return values;
+        values = new double[mappedIDF.capacity()];
+        mappedIDF.duplicate().get(values);
+        return values;
+    }
+
+    /**
+     * Same as getIDFs() but returns null if the IDF are read from a memory
+     * mapped file, in which case getIDF(int) must be used
+     **/
+    double[] heapIDFs()
+    {
+        double[] values = idf;
+        if (values != null || mappedIDF != null)
+            return values;
+        // built once even if several threads need it at the same time
+        synchronized (this)
+        {
+            values = idf;
+            if (values != null)
+                return values;
+            int length = mappedDocFreq != null ? mappedDocFreq.capacity()
+                    : index2docfreq.length;
+            values = new double[length];
+            for (int term = 0; term < length; term++)
+                values[term] = computeIDF(term);
+            idf = values;
+        }
+        return values;
+    }
+
+    private double computeIDF(int term)
+    {
+        double ratio = (double) docNum / (double) getDocFreq(term);
+        return Math.log(ratio);
     }
 
     public void pruneTermsDocFreq(int mindn, int maxdocs)
     {
+        editableIndex();
         // iterate on the terms
         // and remove them if they are below or above
         // the expected number of documents
-        Iterator termIter = this.tokenForm2index.keySet().iterator();
-        List terms2remove = new ArrayList();
-        while (termIter.hasNext())
+        List<String> terms2remove = new ArrayList<String>();
+        for (String term : this.tokenForm2index.sortedKeys())
         {
-            String term = (String) termIter.next();
-            int[] index = this.tokenForm2index.get(term);
+            int index = this.tokenForm2index.get(term);
             // get the docFreq
-            int[] docfreq = (int[]) this.index2docfreq
-                    .get(new Integer(index[0]));
-            if ((docfreq[0] < mindn) || (docfreq[0] > maxdocs))
+            int docfreq = this.index2docfreq[index];
+            if ((docfreq < mindn) || (docfreq > maxdocs))
             {
                 // remove it!
                 terms2remove.add(term);
@@ -289,9 +614,7 @@ public class Lexicon
 
         for (int i = 0; i < terms2remove.size(); i++)
         {
-            String term = (String) terms2remove.get(i);
-            int[] index = this.tokenForm2index.remove(term);
-            this.index2docfreq.remove(Integer.valueOf(index[0]));
+            removeTerm(terms2remove.get(i));
         }
 
     }
@@ -301,6 +624,7 @@ public class Lexicon
      */
     public void applyAttributeFilter(AttributeScorer filter, int rank)
     {
+        editableIndex();
         if (filter == null)
             return;
         if (rank >= this.getAttributesNum())
@@ -309,51 +633,58 @@ public class Lexicon
         double threshold = filter.getValueForRank(rank);
         // iterate on the attributes
         // and remove them if their LLR score is below the threshold
-        Iterator termIter = this.tokenForm2index.keySet().iterator();
-        List terms2remove = new ArrayList();
-        while (termIter.hasNext())
+        List<String> terms2remove = new ArrayList<String>();
+        for (String term : this.tokenForm2index.sortedKeys())
         {
-            String term = (String) termIter.next();
-            int[] index = this.tokenForm2index.get(term);
+            int index = this.tokenForm2index.get(term);
             // get the score
             // TODO what if we are getting -1
-            if (filter.getScore(index[0]) < threshold)
+            if (filter.getScore(index) < threshold)
                 terms2remove.add(term);
         }
         for (int i = 0; i < terms2remove.size(); i++)
         {
-            String term = (String) terms2remove.get(i);
-            int[] index = this.tokenForm2index.remove(term);
-            this.index2docfreq.remove(Integer.valueOf(index[0]));
+            removeTerm(terms2remove.get(i));
         }
     }
 
+    private void removeTerm(String term)
+    {
+        int index = editableIndex().remove(term);
+        if (index != TermDictionary.NOT_FOUND)
+            this.index2docfreq[index] = 0;
+    }
+
     // creates an entry for the token
     // called from Document
     public int createIndex(String tokenForm)
     {
-        int[] index = (int[]) tokenForm2index.get(tokenForm);
-        if (index == null)
+        StringIntHashMap editable = editableIndex();
+        int index = editable.get(tokenForm);
+        if (index == TermDictionary.NOT_FOUND)
         {
-            index = new int[]{nextAttributeID};
-            tokenForm2index.put(tokenForm, index);
+            index = nextAttributeID;
+            editable.put(tokenForm, index);
             nextAttributeID++;
+            ensureDocFreqCapacity(index);
         }
         // add information about number of documents
         // for the term
-        Integer integ = Integer.valueOf(index[0]);
-        int[] docfreq = (int[]) this.index2docfreq.get(integ);
-        if (docfreq == null)
-        {
-            docfreq = new int[]{0};
-            index2docfreq.put(integ, docfreq);
-        }
-        docfreq[0]++;
-        return index[0];
+        index2docfreq[index]++;
+        return index;
+    }
+
+    private void ensureDocFreqCapacity(int index)
+    {
+        if (index < index2docfreq.length)
+            return;
+        int newLength = Math.max(index + 1, index2docfreq.length * 2);
+        index2docfreq = Arrays.copyOf(index2docfreq, newLength);
     }
 
     /**
      * 从文件加载
+     * Loads a lexicon saved in text or binary format
      *
      * @param filename 路径
      * @throws IOException
@@ -361,6 +692,11 @@ public class Lexicon
     private void loadFromFile(String filename) throws IOException
     {
         File file = new File(filename);
+        if (isBinaryFile(file))
+        {
+            loadFromBinaryFile(file);
+            return;
+        }
         BufferedReader reader = new BufferedReader(new FileReader(file));
         String line = null;
         this.docNum = Integer.parseInt(reader.readLine());
@@ -393,21 +729,189 @@ public class Lexicon
             if (index > highestID)
                 highestID = index;
             int docs = Integer.parseInt(content_pos[2]);
-            int[] aindex = new int[]{index};
-            int[] adocs = new int[]{docs};
-            this.tokenForm2index.put(content_pos[0], aindex);
-            this.index2docfreq.put(Integer.valueOf(index), adocs);
+            editableIndex().put(content_pos[0], index);
+            ensureDocFreqCapacity(index);
+            this.index2docfreq[index] = docs;
             loaded++;
         }
         this.nextAttributeID = highestID + 1;
+        editableIndex().trimToSize();
+        if (this.index2docfreq.length > nextAttributeID)
+            this.index2docfreq = Arrays.copyOf(this.index2docfreq,
+                                               nextAttributeID);
         reader.close();
     }
 
+    private static boolean isBinaryFile(File file) throws IOException
+    {
+        if (file.length() < 8)
+            return false;
+        DataInputStream input = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            return input.readInt() == BINARY_MAGIC;
+        }
+        finally
+        {
+            input.close();
+        }
+    }
+
+    /**
+     * Maps a binary lexicon file in memory. The terms, doc freqs and IDF values
+     * are not loaded on the heap but read from the mapped file when needed so
+     * that several JVMs can share the same pages. The content gets copied on
+     * the heap if the lexicon is modified.
+     **/
+    private void loadFromBinaryFile(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        ByteBuffer buffer;
+        try
+        {
+            FileChannel channel = raf.getChannel();
+            // the mapping remains valid once the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel
+                    .size());
+        }
+        finally
+        {
+            raf.close();
+        }
+        buffer.getInt(); // magic
+        int version = buffer.getInt();
+        if (version != BINARY_VERSION)
+            throw new IOException("Unsupported version of binary lexicon : "
+                                          + version);
+        byte[] header = new byte[buffer.getInt()];
+        buffer.get(header);
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(
+                header));
+        this.docNum = input.readInt();
+        this.method_used = Parameters.WeightingMethod.methodFromString(input
+                                                                               .readUTF());
+        this.normalizeVector = input.readBoolean();
+        this.classifierType = input.readBoolean() ? input.readUTF() : null;
+        int numLabels = input.readInt();
+        this.labels = new ArrayList<String>(numLabels);
+        for (int l = 0; l < numLabels; l++)
+            this.labels.add(input.readUTF());
+        int numFields = input.readInt();
+        for (int f = 0; f < numFields; f++)
+        {
+            String field_name = input.readUTF();
+            String method = input.readUTF();
+            if (method.length() > 0)
+                customWeights.put(field_name, Parameters.WeightingMethod
+                        .methodFromString(method));
+            getFieldID(field_name, true);
+        }
+        this.tokenForm2index = new MappedTermDictionary(buffer);
+        this.nextAttributeID = buffer.getInt();
+        ByteBuffer docFreqs = buffer.slice();
+        docFreqs.limit(nextAttributeID * 4);
+        buffer.position(buffer.position() + nextAttributeID * 4);
+        ByteBuffer idfs = buffer.slice();
+        idfs.limit(nextAttributeID * 8);
+        this.mappedDocFreq = docFreqs.asIntBuffer();
+        this.mappedIDF = idfs.asDoubleBuffer();
+        this.index2docfreq = null;
+        this.binaryFormat = true;
+    }
+
+    /**
+     * Saves the lexicon in the format it was loaded from, text by default
+     **/
     public void saveToFile(String filename) throws IOException
+    {
+        saveToFile(filename, binaryFormat);
+    }
+
+    /**
+     * Saves the lexicon in text or binary format. The content is written to a
+     * temporary file which then replaces the target file so that readers never
+     * see a partially written lexicon.
+     **/
+    public void saveToFile(String filename, boolean binary) throws IOException
     {
         File file = new File(filename);
+        File tmpFile = new File(filename + ".tmp");
+        if (binary)
+            saveToBinaryFile(tmpFile);
+        else
+            saveToTextFile(tmpFile);
+        // renameTo does not replace an existing file on all platforms
+        if (!tmpFile.renameTo(file))
+        {
+            file.delete();
+            if (!tmpFile.renameTo(file))
+                throw new IOException("Could not rename " + tmpFile + " to "
+                                              + file);
+        }
+    }
+
+    private void saveToBinaryFile(File file) throws IOException
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        out.writeInt(BINARY_MAGIC);
+        out.writeInt(BINARY_VERSION);
+
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(this.docNum);
+        header.writeUTF(this.method_used.toString());
+        header.writeBoolean(this.normalizeVector);
+        header.writeBoolean(this.classifierType != null);
+        if (this.classifierType != null)
+            header.writeUTF(this.classifierType);
+        String[] labs = getLabels();
+        header.writeInt(labs.length);
+        for (String label : labs)
+            header.writeUTF(label);
+        String[] fieldNames = getFields();
+        header.writeInt(fieldNames.length);
+        for (String fname : fieldNames)
+        {
+            header.writeUTF(fname);
+            WeightingMethod method = customWeights.get(fname);
+            header.writeUTF(method != null ? method.name() : "");
+        }
+        header.close();
+        out.writeInt(headerBytes.size());
+        headerBytes.writeTo(out);
+
+        // same selection of terms as for the text format
+        List<String> terms = new ArrayList<String>();
+        for (String key : this.tokenForm2index.sortedKeys())
+        {
+            int indexTerm = this.tokenForm2index.get(key);
+            if (linearWeight != null
+                    && (indexTerm >= linearWeight.length || linearWeight[indexTerm] == 0))
+                continue;
+            terms.add(key);
+        }
+        String[] termArray = terms.toArray(new String[terms.size()]);
+        int[] termIDs = new int[termArray.length];
+        int[] docFreqs = new int[nextAttributeID];
+        for (int i = 0; i < termArray.length; i++)
+        {
+            termIDs[i] = this.tokenForm2index.get(termArray[i]);
+            docFreqs[termIDs[i]] = getDocFreq(termIDs[i]);
+        }
+        MappedTermDictionary.write(out, termArray, termIDs);
+
+        out.writeInt(nextAttributeID);
+        for (int df : docFreqs)
+            out.writeInt(df);
+        for (int term = 0; term < docFreqs.length; term++)
+            out.writeDouble(docFreqs[term] > 0 ? computeIDF(term) : 0d);
+        out.close();
+    }
+
+    private void saveToTextFile(File file) throws IOException
+    {
         BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-        Iterator forms = this.tokenForm2index.keySet().iterator();
         // saves the number of documents in the corpus
         writer.write(this.docNum + "\n");
         // saves the method used
@@ -434,11 +938,10 @@ public class Lexicon
         }
         writer.write("\n");
 
-        // dump all token_forms one by one
-        while (forms.hasNext())
+        // dump all token_forms one by one in alphabetical order
+        for (String key : this.tokenForm2index.sortedKeys())
         {
-            String key = (String) forms.next();
-            int indexTerm = ((int[]) this.tokenForm2index.get(key))[0];
+            int indexTerm = this.tokenForm2index.get(key);
             int docfreq = this.getDocFreq(indexTerm);
             // dumps the weight of the term
             // or skip the term if it has a weight of 0
@@ -466,6 +969,15 @@ public class Lexicon
         writer.close();
     }
 
+    /**
+     * Specifies whether saveToFile(String) writes the lexicon in binary
+     * format. A binary lexicon is memory mapped when loaded.
+     **/
+    public void setBinaryFormat(boolean binary)
+    {
+        this.binaryFormat = binary;
+    }
+
     public boolean isNormalizeVector()
     {
         return normalizeVector;
@@ -477,6 +989,7 @@ public class Lexicon
      */
     public void setLinearWeight(double[] linearWeight)
     {
+        checkNotFrozen();
         this.linearWeight = linearWeight;
     }
 
@@ -487,6 +1000,7 @@ public class Lexicon
      */
     public void setNormalizeVector(boolean normalizeVector)
     {
+        checkNotFrozen();
         this.normalizeVector = normalizeVector;
     }
 
@@ -497,6 +1011,7 @@ public class Lexicon
         int position = this.labels.indexOf(label);
         if (position != -1)
             return position;
+        checkNotFrozen();
         this.labels.add(label.toLowerCase());
         return this.labels.size() - 1;
     }
@@ -507,19 +1022,17 @@ public class Lexicon
     public Map<Integer, String> getInvertedIndex()
     {
         TreeMap<Integer, String> inverted = new TreeMap<Integer, String>();
-        Iterator<String> keyiter = this.tokenForm2index.keySet().iterator();
-        while (keyiter.hasNext())
+        for (String key : this.tokenForm2index.sortedKeys())
         {
-            String key = keyiter.next();
-            int[] index = tokenForm2index.get(key);
-            Integer i = Integer.valueOf(index[0]);
-            inverted.put(i, key);
+            inverted.put(Integer.valueOf(tokenForm2index.get(key)), key);
         }
         return inverted;
     }
 
     public String getLabel(int index)
     {
+        if (frozen)
+            return labelArray[index];
         return (String) this.labels.get(index);
     }
 
@@ -530,6 +1043,7 @@ public class Lexicon
 
     protected void setClassifierType(String classifierType)
     {
+        checkNotFrozen();
         this.classifierType = classifierType;
     }
 
@@ -551,6 +1065,7 @@ public class Lexicon
 
     public void setAttributeScorer(AttributeScorer f)
     {
+        checkNotFrozen();
         this.filter = f;
     }
 
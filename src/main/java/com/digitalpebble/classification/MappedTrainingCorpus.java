@@ -0,0 +1,341 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/*******************************************************************************
+ * Read-only view of the documents of a raw file, obtained with
+ * FileTrainingCorpus.map(). The raw file and its offset index are mapped in
+ * memory so that document i is decoded from the file without reading the
+ * documents before it and without loading the corpus on the heap, e.g. for
+ * sampling, cross validation folds or shuffled passes. The raw file is mapped
+ * in segments so that files larger than 2GB can be used. A view can be split
+ * into ranges read in parallel.
+ ******************************************************************************/
+public class MappedTrainingCorpus implements SplittableTrainingCorpus {
+
+	private static final int SEGMENT_BITS = 30;
+
+	// the segments overlap so that the documents across a boundary can be
+	// read from a single buffer, the larger ones are read from the file
+	private static final int SEGMENT_OVERLAP = 1 << 24;
+
+	private static final int INDEX_SEGMENT_BITS = 27;
+
+	private final File raw_file;
+
+	private final FileTrainingCorpus.Format format;
+
+	private final long length;
+
+	private final ByteBuffer[] segments;
+
+	private final LongBuffer[] offsets;
+
+	private final int from;
+
+	private final int to;
+
+	MappedTrainingCorpus(File rfile, FileTrainingCorpus.Format format,
+			int numDocuments) throws IOException {
+		this.raw_file = rfile;
+		this.format = format;
+		this.from = 0;
+		this.to = numDocuments;
+
+		RandomAccessFile raf = new RandomAccessFile(rfile, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			// the mappings remain valid once the channel is closed
+			length = channel.size();
+			int numSegments = (int) ((length >> SEGMENT_BITS) + 1);
+			segments = new ByteBuffer[numSegments];
+			for (int s = 0; s < numSegments; s++) {
+				long start = (long) s << SEGMENT_BITS;
+				long size = Math.min(length - start, (1l << SEGMENT_BITS)
+						+ SEGMENT_OVERLAP);
+				segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, start,
+						size);
+			}
+		} finally {
+			raf.close();
+		}
+
+		File index = RawFileIndex.indexFile(rfile);
+		raf = new RandomAccessFile(index, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < 8l * numDocuments)
+				throw new IOException("Index " + index + " is incomplete");
+			int numSegments = (numDocuments >> INDEX_SEGMENT_BITS) + 1;
+			offsets = new LongBuffer[numSegments];
+			for (int s = 0; s < numSegments; s++) {
+				long first = (long) s << INDEX_SEGMENT_BITS;
+				long size = Math.min(numDocuments - first,
+						1l << INDEX_SEGMENT_BITS);
+				offsets[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+						first * 8, size * 8).asLongBuffer();
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	private MappedTrainingCorpus(MappedTrainingCorpus corpus, int from, int to) {
+		this.raw_file = corpus.raw_file;
+		this.format = corpus.format;
+		this.length = corpus.length;
+		this.segments = corpus.segments;
+		this.offsets = corpus.offsets;
+		this.from = from;
+		this.to = to;
+	}
+
+	/** Number of documents in this view * */
+	public int size() {
+		return to - from;
+	}
+
+	/** Returns the document of a given rank in this view * */
+	public Document get(int i) throws IOException {
+		if (i < 0 || i >= size())
+			throw new IndexOutOfBoundsException("Document " + i
+					+ " out of range [0," + size() + ")");
+		int rank = from + i;
+		if (format == FileTrainingCorpus.Format.COMPRESSED)
+			return getCompressed(rank);
+		long start = offset(rank);
+		// the next document of the index or the end of the file
+		// bounds the size of this one
+		long end = rank + 1 < numIndexed() ? offset(rank + 1) : length;
+		int size = (int) Math.min(end - start, Integer.MAX_VALUE);
+
+		BinaryRawFormat.Input record = RECORD.get();
+		if (record.data.length < size)
+			record.data = new byte[Math.max(size, 2 * record.data.length)];
+		read(start, record.data, size);
+
+		if (format == FileTrainingCorpus.Format.BINARY) {
+			record.pos = 0;
+			record.limit = size;
+			int recordLength = record.readVInt();
+			if (recordLength > size - record.pos)
+				throw new IOException("Truncated record " + rank);
+			record.limit = record.pos + recordLength;
+			return BinaryRawFormat.readDocument(record);
+		}
+		int lineLength = 0;
+		while (lineLength < size && record.data[lineLength] != '\n')
+			lineLength++;
+		Document doc = RawFileIndex.parseLine(record.data, lineLength);
+		if (doc == null)
+			throw new IOException("Can't parse document " + rank);
+		return doc;
+	}
+
+	// the documents of a compressed file are read from their block
+	// which is kept for the following documents
+	private Document getCompressed(int rank) throws IOException {
+		long position = offset(rank);
+		long blockStart = position >>> 16;
+		int doc = (int) (position & 0xFFFF);
+		BlockCache cache = BLOCKS.get();
+		try {
+			if (cache.segments != segments || cache.blockStart != blockStart
+					|| cache.nextDoc > doc) {
+				cache.segments = null;
+				// the header gives the size of the block
+				BinaryRawFormat.Input data = cache.data;
+				int size = (int) Math.min(15, length - blockStart);
+				data.ensureCapacity(size);
+				read(blockStart, data.data, size);
+				data.pos = 0;
+				data.limit = size;
+				int compressedLength = data.readVInt();
+				data.readVInt();
+				data.readVInt();
+				size = data.pos + compressedLength;
+				if (compressedLength < 0 || blockStart + size > length)
+					throw new IOException("Truncated block " + blockStart);
+				data.ensureCapacity(size);
+				read(blockStart, data.data, size);
+				data.pos = 0;
+				data.limit = size;
+				cache.decoder.read(data);
+				cache.segments = segments;
+				cache.blockStart = blockStart;
+				cache.nextDoc = 0;
+			}
+			BinaryRawFormat.Input block = cache.decoder.block;
+			for (; cache.nextDoc < doc; cache.nextDoc++)
+				BinaryRawFormat.skipRecord(block);
+			cache.nextDoc++;
+			return BinaryRawFormat.readDocumentRecord(block);
+		} catch (IOException e) {
+			cache.segments = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a view on the documents from rank from (inclusive) to rank to
+	 * (exclusive) of this view
+	 */
+	public MappedTrainingCorpus range(int from, int to) {
+		if (from < 0 || to > size() || from > to)
+			throw new IndexOutOfBoundsException("Range [" + from + "," + to
+					+ ") out of [0," + size() + ")");
+		return new MappedTrainingCorpus(this, this.from + from, this.from + to);
+	}
+
+	/**
+	 * Splits the view into at most numSplits ranges covering about the same
+	 * number of bytes of the raw file
+	 */
+	public List<TrainingCorpus> split(int numSplits) {
+		List<TrainingCorpus> parts = new ArrayList<TrainingCorpus>();
+		if (numSplits <= 1 || size() <= 1) {
+			parts.add(this);
+			return parts;
+		}
+		long first = offset(from);
+		long last = to < numIndexed() ? offset(to)
+				: format == FileTrainingCorpus.Format.COMPRESSED ? length << 16
+						: length;
+		int start = from;
+		for (int s = 1; s < numSplits; s++) {
+			long boundary = first + (last - first) * s / numSplits;
+			int end = firstAtOrAfter(boundary, start, to);
+			if (end > start) {
+				parts.add(new MappedTrainingCorpus(this, start, end));
+				start = end;
+			}
+		}
+		if (start < to)
+			parts.add(new MappedTrainingCorpus(this, start, to));
+		return parts;
+	}
+
+	// rank of the first document starting at or after a position
+	// between the ranks low and high, high if there is none
+	private int firstAtOrAfter(long position, int low, int high) {
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (offset(mid) < position)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private int numIndexed() {
+		int last = offsets.length - 1;
+		return (last << INDEX_SEGMENT_BITS) + offsets[last].capacity();
+	}
+
+	private long offset(int rank) {
+		return offsets[rank >>> INDEX_SEGMENT_BITS].get(rank
+				& ((1 << INDEX_SEGMENT_BITS) - 1));
+	}
+
+	private void read(long start, byte[] data, int size) throws IOException {
+		int segment = (int) (start >>> SEGMENT_BITS);
+		int pos = (int) (start - ((long) segment << SEGMENT_BITS));
+		ByteBuffer buffer = segments[segment];
+		if (pos + size <= buffer.capacity()) {
+			buffer = buffer.duplicate();
+			buffer.position(pos);
+			buffer.get(data, 0, size);
+			return;
+		}
+		RandomAccessFile raf = new RandomAccessFile(raw_file, "r");
+		try {
+			raf.seek(start);
+			raf.readFully(data, 0, size);
+		} finally {
+			raf.close();
+		}
+	}
+
+	public Iterator<Document> iterator() {
+		return new Iterator<Document>() {
+			private int next = 0;
+
+			public boolean hasNext() {
+				return next < size();
+			}
+
+			public Document next() {
+				try {
+					return get(next++);
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+
+			public void remove() {
+				throw new RuntimeException("Remove operation not supported");
+			}
+		};
+	}
+
+	public void addDocument(Document doc) throws IOException {
+		throw new IOException("A mapped corpus is read-only");
+	}
+
+	public void close() {
+		// the mappings are released by the garbage collector
+	}
+
+	// last block decompressed by a thread
+	private static final class BlockCache {
+		ByteBuffer[] segments;
+
+		long blockStart = -1;
+
+		// rank in the block of the document at the current position
+		int nextDoc;
+
+		final BinaryRawFormat.BlockDecoder decoder = new BinaryRawFormat.BlockDecoder();
+
+		final BinaryRawFormat.Input data = new BinaryRawFormat.Input();
+	}
+
+	private static final ThreadLocal<BlockCache> BLOCKS = new ThreadLocal<BlockCache>() {
+		protected BlockCache initialValue() {
+			return new BlockCache();
+		}
+	};
+
+	// buffer in which the documents are copied before being decoded
+	private static final ThreadLocal<BinaryRawFormat.Input> RECORD = new ThreadLocal<BinaryRawFormat.Input>() {
+		protected BinaryRawFormat.Input initialValue() {
+			return new BinaryRawFormat.Input();
+		}
+	};
+
+}
@@ -16,6 +16,7 @@
 
 package com.digitalpebble.classification;
 
+import java.io.IOException;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.TreeMap;
@@ -221,124 +222,157 @@ public class MultiFieldDocument implements Document {
 		return newdoc;
 	}
 
+	/** Serialization used by the binary raw files * */
+	void writeBinary(BinaryRawFormat.Output out) {
+		out.writeByte(BinaryRawFormat.MULTIFIELD_DOCUMENT);
+		out.writeVInt(label);
+		out.writeVInt(tokensPerField.length);
+		for (double tokperf : tokensPerField)
+			out.writeDouble(tokperf);
+		out.writeVInt(indices.length);
+		out.writeDeltas(indices);
+		out.writeVInts(freqs);
+		out.writeVInts(indexToField);
+	}
+
+	/** Build a document from its binary serialization, without the type * */
+	static MultiFieldDocument readBinary(BinaryRawFormat.Input in)
+			throws IOException {
+		MultiFieldDocument newdoc = new MultiFieldDocument();
+		newdoc.label = in.readVInt();
+		int numFields = in.readCount();
+		newdoc.tokensPerField = new double[numFields];
+		for (int i = 0; i < numFields; i++)
+			newdoc.tokensPerField[i] = in.readDouble();
+		int numfeatures = in.readCount();
+		newdoc.indices = new int[numfeatures];
+		newdoc.freqs = new int[numfeatures];
+		newdoc.indexToField = new int[numfeatures];
+		in.readDeltas(newdoc.indices);
+		in.readVInts(newdoc.freqs);
+		in.readVInts(newdoc.indexToField);
+		return newdoc;
+	}
+
 	/**
 	 * Returns a Vector representation of the document. This Vector object is
 	 * weighted and used by the instances of Learner or TextClassifier
 	 */
 	public Vector getFeatureVector(Lexicon lexicon) {
-		Parameters.WeightingMethod method = lexicon.getMethod();
-		return getFeatureVector(lexicon, method, null);
+		return getFeatureVector(lexicon, lexicon.getMethod());
 	}
 
 	public Vector getFeatureVector(Lexicon lexicon,
 			Parameters.WeightingMethod method) {
-		return getFeatureVector(lexicon, method, null);
+		Vector vector = new Vector(new int[indices.length],
+				new double[indices.length]);
+		return getFeatureVector(lexicon, method, null, null, vector)
+				.trimToSize();
 	}
 
+	/**
+	 * @deprecated use getFeatureVector(Lexicon, int[], Vector)
+	 */
+	@Deprecated
 	public Vector getFeatureVector(Lexicon lexicon, Map<Integer, Integer> equiv) {
 		Parameters.WeightingMethod method = lexicon.getMethod();
 		return getFeatureVector(lexicon, method, equiv);
 	}
 
+	public Vector getFeatureVector(Lexicon lexicon, Vector buffer) {
+		return getFeatureVector(lexicon, lexicon.getMethod(), null, null,
+				buffer);
+	}
+
+	public Vector getFeatureVector(Lexicon lexicon, int[] remap, Vector buffer) {
+		return getFeatureVector(lexicon, lexicon.getMethod(), remap, null,
+				buffer);
+	}
+
+	/**
+	 * @deprecated use getFeatureVector(Lexicon, int[], Vector), the mapping is
+	 *             looked up for every attribute of the document
+	 */
+	@Deprecated
 	public Vector getFeatureVector(Lexicon lexicon,
 			Parameters.WeightingMethod method, Map<Integer, Integer> equiv) {
+		Vector vector = new Vector(new int[indices.length],
+				new double[indices.length]);
+		return getFeatureVector(lexicon, method, null, equiv, vector)
+				.trimToSize();
+	}
+
+	private Vector getFeatureVector(Lexicon lexicon,
+			Parameters.WeightingMethod method, int[] remap,
+			Map<Integer, Integer> equiv, Vector buffer) {
 		// we need to iterate on the features
 		// of this document and compute a score
 		double numDocs = (double) lexicon.getDocNum();
 
 		// have the attribute numbers been changed in
 		// the meantime?
-		if (equiv != null) {
-			for (int pos = 0; pos < indices.length; pos++) {
-				Integer newPos = equiv.get(indices[pos]);
-				// filtered
-				if (newPos == null)
-					indices[pos] = Integer.MAX_VALUE;
-				else
-					indices[pos] = newPos.intValue();
-			}
-			// resort the indices
-			quicksort(indices, freqs, indexToField, 0, indices.length - 1);
+		int size = indices.length;
+		long[] remapped = null;
+		if (remap != null) {
+			size = buffer.remap(indices, remap);
+			remapped = buffer.getRemapped();
+		} else if (equiv != null) {
+			size = buffer.remap(indices, equiv);
+			remapped = buffer.getRemapped();
 		}
 
 		int kept = 0;
-		double[] copyvalues = new double[indices.length];
-		for (int pos = 0; pos < indices.length; pos++) {
+		buffer.ensureCapacity(size);
+		int[] vectorIndices = buffer.getIndices();
+		double[] values = buffer.getValues();
+		// the weighting scheme can be specific to a field
+		WeightingMethod[] methods = lexicon.getMethods();
+		// null if the lexicon is memory mapped
+		double[] idfs = lexicon.heapIDFs();
+		for (int k = 0; k < size; k++) {
+			int pos = k;
+			int index = indices[k];
+			if (remapped != null) {
+				pos = (int) remapped[k];
+				index = (int) (remapped[k] >>> 32);
+			}
 			// need to check that a given term has not
 			// been filtered since the creation of the corpus
 			// the indices are sorted so we know there is no point
 			// in going further
 			// Integer.MAX_VALUE == unknown in model
-			if (indices[pos] == Integer.MAX_VALUE) {
+			if (index == Integer.MAX_VALUE) {
 				break;
 			}
-			if (lexicon.getDocFreq(indices[pos]) <= 0)
+			vectorIndices[k] = index;
+			// a score is stored at the position of its term and not
+			// at the position of the kept ones, which is how the vectors
+			// have always been built
+			values[k] = 0;
+			int df = lexicon.getDocFreq(index);
+			if (df <= 0)
 				continue;
-			double score = getScore(pos, lexicon, numDocs);
+			double occurences = (double) this.freqs[pos];
+			int fieldNum = this.indexToField[pos];
+			double frequency = occurences / tokensPerField[fieldNum];
+			// a term present in all the documents gets its frequency
+			// as TFIDF score
+			double idf = df == numDocs ? 1 : idfs != null ? idfs[index]
+					: lexicon.getIDF(index);
+			double score = methods[fieldNum].score(occurences, frequency, idf);
 			// removed in meantime?
 			if (score == 0)
 				continue;
-			copyvalues[pos] = score;
+			values[k] = score;
 			kept++;
 		}
-		// trim to size
-		int[] trimmedindices = new int[kept];
-		double[] trimmedvalues = new double[kept];
+		buffer.setSize(kept);
 
-		// normalize the values?
-		if (lexicon.isNormalizeVector())
-			normalizeL2(trimmedvalues);
+		// the vectors are not normalized even if lexicon.isNormalizeVector()
+		// as the normalization used to be applied to an empty array, changing
+		// it would change the output of the models already trained
 
-		System.arraycopy(indices, 0, trimmedindices, 0, kept);
-		System.arraycopy(copyvalues, 0, trimmedvalues, 0, kept);
-		return new Vector(trimmedindices, trimmedvalues);
-	}
-
-	/**
-	 * Returns the score of an attribute given the weighting scheme specified in
-	 * the lexicon or for a specific field
-	 **/
-	private double getScore(int pos, Lexicon lexicon, double numdocs) {
-		double score = 0;
-		int indexTerm = this.indices[pos];
-		double occurences = (double) this.freqs[pos];
-
-		int fieldNum = this.indexToField[pos];
-		double frequency = occurences / tokensPerField[fieldNum];
-
-		// is there a custom weight for this field?
-		String fieldName = lexicon.getFields()[fieldNum];
-		WeightingMethod method = lexicon.getMethod(fieldName);
-
-		if (method.equals(Parameters.WeightingMethod.BOOLEAN)) {
-			score = 1;
-		} else if (method.equals(Parameters.WeightingMethod.OCCURRENCES)) {
-			score = occurences;
-		} else if (method.equals(Parameters.WeightingMethod.FREQUENCY)) {
-			score = frequency;
-		} else if (method.equals(Parameters.WeightingMethod.TFIDF)) {
-			int df = lexicon.getDocFreq(indexTerm);
-			double idf = numdocs / (double) df;
-			score = frequency * Math.log(idf);
-			if (idf == 1)
-				score = frequency;
-		}
-		return score;
-	}
-
-	/**
-	 * Returns the L2 norm factor of this vector's values.
-	 */
-	private void normalizeL2(double[] scores) {
-		double square_sum = 0.0;
-		for (int i = 0; i < scores.length; i++) {
-			square_sum += (scores[i] * scores[i]);
-		}
-		double norm = Math.sqrt(square_sum);
-		if (norm != 0)
-			for (int i = 0; i < scores.length; i++) {
-				scores[i] = scores[i] / norm;
-			}
+		return buffer;
 	}
 
 	private int partition(int[] dims, int[] vals, int[] vals2, int low, int high) {
@@ -27,7 +27,42 @@ public abstract class Parameters
      */
     public enum WeightingMethod
     {
-        FREQUENCY, BOOLEAN, TFIDF, OCCURRENCES;
+        FREQUENCY
+        {
+            public double score(double occurrences, double frequency, double idf)
+            {
+                return frequency;
+            }
+        },
+        BOOLEAN
+        {
+            public double score(double occurrences, double frequency, double idf)
+            {
+                return 1;
+            }
+        },
+        TFIDF
+        {
+            public double score(double occurrences, double frequency, double idf)
+            {
+                return frequency * idf;
+            }
+        },
+        OCCURRENCES
+        {
+            public double score(double occurrences, double frequency, double idf)
+            {
+                return occurrences;
+            }
+        };
+
+        /**
+         * 计算权重
+         * Returns the weight of a term given its number of occurrences in the
+         * document or field, its frequency in it and its IDF in the lexicon
+         */
+        public abstract double score(double occurrences, double frequency,
+                                     double idf);
 
         public String toString()
         {
@@ -74,6 +109,12 @@ public abstract class Parameters
      */
     public static String modelName = "model";
 
+    /**
+     * 量化模型名称 quantised version of a liblinear model, used instead of the
+     * model if present
+     */
+    public static String quantisedModelName = "model.quantised";
+
     /**
      * 词表名称
      */
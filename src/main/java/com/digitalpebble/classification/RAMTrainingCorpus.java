@@ -17,12 +17,16 @@
 package com.digitalpebble.classification;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * 存在内存中的语料库
  */
-public class RAMTrainingCorpus extends LinkedList<Document> implements TrainingCorpus
+public class RAMTrainingCorpus extends LinkedList<Document> implements
+        SplittableTrainingCorpus
 {
 
     private static final long serialVersionUID = 3284220814289135993L;
@@ -37,4 +41,24 @@ public class RAMTrainingCorpus extends LinkedList<Document> implements TrainingC
         // nothing to do
     }
 
+    /**
+     * Splits the documents into at most numSplits corpora with the same
+     * number of documents
+     **/
+    public List<TrainingCorpus> split(int numSplits)
+    {
+        List<TrainingCorpus> parts = new ArrayList<TrainingCorpus>();
+        int numParts = Math.max(1, Math.min(numSplits, size()));
+        Iterator<Document> documents = iterator();
+        for (int p = 0; p < numParts; p++)
+        {
+            RAMTrainingCorpus part = new RAMTrainingCorpus();
+            int partSize = size() / numParts + (p < size() % numParts ? 1 : 0);
+            for (int d = 0; d < partSize; d++)
+                part.add(documents.next());
+            parts.add(part);
+        }
+        return parts;
+    }
+
 }
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/*******************************************************************************
+ * Offset index of a raw file. The companion file holds the position in the raw
+ * file of each document, as a long, so that the documents can be accessed by
+ * their rank. For a compressed file, the position is the one of the block
+ * shifted by 16 bits plus the rank of the document in the block. It is written
+ * by FileTrainingCorpus as the documents are added. When the corpus is closed,
+ * a trailer with the number of documents, the length of the raw file and a
+ * checksum of its first and last blocks is appended to the index. An existing
+ * raw file can then be reopened without reading all its documents; the index
+ * is rebuilt from the raw file when the trailer is missing or does not match
+ * it, e.g. if the raw file was not closed properly or has been modified by
+ * something else.
+ ******************************************************************************/
+final class RawFileIndex {
+
+	private static final int TRAILER_MAGIC = 0x52494458;
+
+	static final int TRAILER_LENGTH = 28;
+
+	// size of the blocks at the start and end of the raw file
+	// used for the checksum
+	private static final int CHECKSUM_BLOCK = 65536;
+
+	private RawFileIndex() {
+	}
+
+	static File indexFile(File raw) {
+		return new File(raw.getPath() + FileTrainingCorpus.INDEX_SUFFIX);
+	}
+
+	static DataOutputStream openIndex(File raw, boolean append)
+			throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(indexFile(raw), append), 65536));
+	}
+
+	/** Appends the trailer to the index of a raw file which has been closed * */
+	static void writeTrailer(DataOutputStream index, File raw,
+			int numDocuments) throws IOException {
+		index.writeLong(numDocuments);
+		index.writeLong(raw.length());
+		index.writeLong(checksum(raw));
+		index.writeInt(TRAILER_MAGIC);
+	}
+
+	/**
+	 * Checks the trailer of the index of a raw file and removes it so that
+	 * new positions can be appended. Returns the number of documents or -1 if
+	 * the index does not match the raw file.
+	 */
+	static int openTrailer(File raw, FileTrainingCorpus.Format format)
+			throws IOException {
+		File index = indexFile(raw);
+		if (!index.exists() || index.length() < TRAILER_LENGTH)
+			return -1;
+		RandomAccessFile file = new RandomAccessFile(index, "rw");
+		try {
+			long entries = file.length() - TRAILER_LENGTH;
+			file.seek(entries);
+			long numDocuments = file.readLong();
+			long rawLength = file.readLong();
+			long checksum = file.readLong();
+			int magic = file.readInt();
+			if (magic != TRAILER_MAGIC || numDocuments * 8 != entries
+					|| numDocuments > Integer.MAX_VALUE
+					|| rawLength != raw.length() || checksum != checksum(raw))
+				return -1;
+			// the last document must be in the raw file
+			if (numDocuments > 0) {
+				file.seek(entries - 8);
+				long last = file.readLong();
+				if (format == FileTrainingCorpus.Format.COMPRESSED)
+					last >>>= 16;
+				if (last >= rawLength)
+					return -1;
+			}
+			file.setLength(entries);
+			return (int) numDocuments;
+		} finally {
+			file.close();
+		}
+	}
+
+	/** CRC32 of the first and last blocks of a file * */
+	static long checksum(File raw) throws IOException {
+		CRC32 crc = new CRC32();
+		RandomAccessFile file = new RandomAccessFile(raw, "r");
+		try {
+			long length = file.length();
+			byte[] block = new byte[(int) Math.min(length, CHECKSUM_BLOCK)];
+			file.readFully(block);
+			crc.update(block);
+			file.seek(length - block.length);
+			file.readFully(block);
+			crc.update(block);
+		} finally {
+			file.close();
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * Reads all the documents of a raw file and writes the position of the
+	 * ones which can be parsed in a new index, returns the number of documents
+	 */
+	static int rebuild(File raw, FileTrainingCorpus.Format format)
+			throws IOException {
+		InputStream input = new BufferedInputStream(new FileInputStream(raw),
+				65536);
+		DataOutputStream index = openIndex(raw, false);
+		try {
+			if (format == FileTrainingCorpus.Format.COMPRESSED)
+				return rebuildCompressed(input, index);
+			if (format == FileTrainingCorpus.Format.BINARY)
+				return rebuildBinary(input, index);
+			return rebuildText(input, index);
+		} finally {
+			input.close();
+			index.close();
+		}
+	}
+
+	private static int rebuildBinary(InputStream input, DataOutputStream index)
+			throws IOException {
+		BinaryRawFormat.skipHeader(input);
+		long position = BinaryRawFormat.HEADER_LENGTH;
+		BinaryRawFormat.Input record = new BinaryRawFormat.Input();
+		int count = 0;
+		while (BinaryRawFormat.readRecord(input, record)) {
+			BinaryRawFormat.readDocument(record);
+			index.writeLong(position);
+			position += BinaryRawFormat.vIntSize(record.limit) + record.limit;
+			count++;
+		}
+		return count;
+	}
+
+	private static int rebuildCompressed(InputStream input,
+			DataOutputStream index) throws IOException {
+		BinaryRawFormat.skipHeader(input);
+		long position = BinaryRawFormat.HEADER_LENGTH;
+		BinaryRawFormat.BlockDecoder blocks = new BinaryRawFormat.BlockDecoder();
+		int count = 0;
+		try {
+			while (blocks.read(input)) {
+				for (int d = 0; d < blocks.numDocuments; d++) {
+					BinaryRawFormat.readDocumentRecord(blocks.block);
+					index.writeLong(position << 16 | d);
+					count++;
+				}
+				position += blocks.size;
+			}
+		} finally {
+			blocks.end();
+		}
+		return count;
+	}
+
+	private static int rebuildText(InputStream input, DataOutputStream index)
+			throws IOException {
+		byte[] buffer = new byte[65536];
+		byte[] line = new byte[1024];
+		int length = 0;
+		long position = 0;
+		long lineStart = 0;
+		int count = 0;
+		int read;
+		while ((read = input.read(buffer)) != -1) {
+			for (int i = 0; i < read; i++) {
+				byte b = buffer[i];
+				if (b == '\n') {
+					if (length > 0 && parseLine(line, length) != null) {
+						index.writeLong(lineStart);
+						count++;
+					}
+					length = 0;
+					lineStart = position + i + 1;
+					continue;
+				}
+				if (length == line.length)
+					line = Arrays.copyOf(line, 2 * length);
+				line[length++] = b;
+			}
+			position += read;
+		}
+		// last line without a line break
+		if (length > 0 && parseLine(line, length) != null) {
+			index.writeLong(lineStart);
+			count++;
+		}
+		return count;
+	}
+
+	/**
+	 * Rebuilds a document from a line of a text raw file, returns null if it
+	 * can't be parsed
+	 */
+	static Document parseLine(byte[] line, int length) {
+		if (length > 0 && line[length - 1] == '\r')
+			length--;
+		return parse(new String(line, 0, length));
+	}
+
+	static Document parse(String line) {
+		if (line.startsWith("SimpleDocument"))
+			return SimpleDocument.parse(line);
+		if (line.startsWith("MultiFieldDocument"))
+			return MultiFieldDocument.parse(line);
+		return null;
+	}
+
+}
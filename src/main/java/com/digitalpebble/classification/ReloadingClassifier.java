@@ -0,0 +1,219 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps a TextClassifier up to date with the content of its resource
+ * directory. The directory is polled by a background thread; when the lexicon,
+ * the model or the quantised model (see ModelUtils -quantiseModel) has
+ * changed and none of them has been modified again for one polling interval,
+ * the new lexicon and model are loaded and validated by this thread then
+ * swapped in atomically. The requests in progress finish with the classifier
+ * they started with and the ones using get() or the classify() methods of
+ * this class never wait for a model to load. If the new resources can't be
+ * loaded or are not valid, the current classifier is kept until they change
+ * again and the failure is available from getLastFailure().
+ * <p/>
+ * The resources must be in a directory: a zipped resource directory, which
+ * TextClassifier.getClassifier() would unzip, has no modification times to
+ * watch and is rejected.
+ **/
+public class ReloadingClassifier
+{
+    private final File resourceDirectory;
+
+    private final AtomicReference<TextClassifier> current = new AtomicReference<TextClassifier>();
+
+    private final ScheduledExecutorService poller;
+
+    private static final String[] RESOURCES = new String[]{
+            Parameters.lexiconName, Parameters.modelName,
+            Parameters.quantisedModelName};
+
+    // modification times of the resources of the current classifier
+    private long[] loadedModification;
+
+    // modification times of the resources seen at the previous poll
+    private long[] pendingModification = null;
+
+    // modification times of resources which could not be loaded
+    private long[] failedModification = null;
+
+    private volatile Throwable lastFailure = null;
+
+    /**
+     * Loads the classifier of a resource directory and checks it for changes
+     * every pollingInterval
+     *
+     * @throws IllegalArgumentException if resourceDirectory is not a directory
+     * @throws Exception if the initial classifier can't be loaded
+     **/
+    public ReloadingClassifier(File resourceDirectory, long pollingInterval,
+                               TimeUnit unit) throws Exception
+    {
+        if (!resourceDirectory.isDirectory())
+            throw new IllegalArgumentException(resourceDirectory
+                    + " is not a directory and can't be watched for changes");
+        this.resourceDirectory = resourceDirectory;
+        loadedModification = lastModified();
+        TextClassifier initial = TextClassifier
+                .getClassifier(resourceDirectory);
+        // validate() can't be called before a subclass is initialised
+        if (!isUsable(initial))
+            throw new Exception("Invalid classifier in " + resourceDirectory);
+        current.set(initial);
+        poller = Executors
+                .newSingleThreadScheduledExecutor(new ThreadFactory()
+                {
+                    public Thread newThread(Runnable r)
+                    {
+                        Thread thread = new Thread(r, "ReloadingClassifier "
+                                + ReloadingClassifier.this.resourceDirectory);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        poller.scheduleWithFixedDelay(new Runnable()
+        {
+            public void run()
+            {
+                checkForUpdate();
+            }
+        }, pollingInterval, pollingInterval, unit);
+    }
+
+    /**
+     * Returns the current classifier. The same instance should be used for
+     * creating and classifying a document, see classify(String[]).
+     **/
+    public TextClassifier get()
+    {
+        return current.get();
+    }
+
+    /**
+     * Creates and classifies a document with the current classifier
+     **/
+    public double[] classify(String[] tokens) throws Exception
+    {
+        TextClassifier classifier = current.get();
+        return classifier.classify(classifier.createDocument(tokens));
+    }
+
+    /**
+     * Creates and classifies a document with the current classifier
+     **/
+    public double[] classify(Field[] fields) throws Exception
+    {
+        TextClassifier classifier = current.get();
+        return classifier.classify(classifier.createDocument(fields));
+    }
+
+    // modification times of the resources, 0 for a missing one
+    private long[] lastModified()
+    {
+        long[] modified = new long[RESOURCES.length];
+        for (int r = 0; r < RESOURCES.length; r++)
+            modified[r] = new File(resourceDirectory, RESOURCES[r])
+                    .lastModified();
+        return modified;
+    }
+
+    /**
+     * Reloads the classifier if its resources have changed and have been
+     * stable since the previous call. Called by the polling thread; returns
+     * true if a new classifier has been swapped in.
+     **/
+    public synchronized boolean checkForUpdate()
+    {
+        long[] modified = lastModified();
+        if (Arrays.equals(modified, loadedModification))
+        {
+            pendingModification = null;
+            return false;
+        }
+        // still being written or already failed
+        if (!Arrays.equals(modified, pendingModification)
+                || Arrays.equals(modified, failedModification))
+        {
+            pendingModification = modified;
+            return false;
+        }
+        try
+        {
+            TextClassifier candidate = TextClassifier
+                    .getClassifier(resourceDirectory);
+            if (!validate(candidate))
+                throw new Exception("Invalid classifier");
+            current.set(candidate);
+            loadedModification = modified;
+            pendingModification = null;
+            lastFailure = null;
+            return true;
+        }
+        catch (Throwable e)
+        {
+            lastFailure = e;
+            failedModification = modified;
+            return false;
+        }
+    }
+
+    /**
+     * Returns the reason why the latest resources could not be loaded, or null
+     * if the current classifier was loaded from them
+     **/
+    public Throwable getLastFailure()
+    {
+        return lastFailure;
+    }
+
+    /**
+     * Checks a reloaded classifier before it is used. The default
+     * implementation makes sure that the lexicon has labels and that an empty
+     * document can be classified; the initial classifier is always checked
+     * this way as the constructor doesn't call this method.
+     **/
+    protected boolean validate(TextClassifier candidate) throws Exception
+    {
+        return isUsable(candidate);
+    }
+
+    private static boolean isUsable(TextClassifier candidate) throws Exception
+    {
+        if (candidate.getLabels().length == 0)
+            return false;
+        double[] scores = candidate.classify(candidate
+                .createDocument(new String[0]));
+        return scores != null && scores.length > 0;
+    }
+
+    /** Stops watching the resource directory **/
+    public void close()
+    {
+        poller.shutdownNow();
+    }
+
+}
@@ -16,12 +16,15 @@
 
 package com.digitalpebble.classification;
 
-import java.util.Iterator;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Map;
-import java.util.TreeMap;
-import java.util.Map.Entry;
 import java.util.regex.Pattern;
 
+import com.digitalpebble.classification.util.IntCounter;
+import com.digitalpebble.classification.util.StringIntHashMap;
+import com.digitalpebble.classification.util.TermDictionary;
+
 /*******************************************************************************
  * A Document is built by an instance of Learner or Classifier
  ******************************************************************************/
@@ -70,9 +73,13 @@ public class SimpleDocument implements Document
 
         totalNumberTokens = 0;
 
-        // create a vector for this document
-        // from the individual tokens
-        TreeMap<String, int[]> tokens = new TreeMap<String, int[]>();   // 词频统计
+        // count the tokens directly by their ID in the lexicon
+        // the ones not in the lexicon yet are counted by token form
+        TokenCounts counts = TOKEN_COUNTS.get();
+        IntCounter known = counts.known;
+        StringIntHashMap unknown = counts.unknown;
+        known.clear();
+        unknown.clear();
         for (int token = 0; token < tokenstring.length; token++)
         {
             // remove null strings or empty strings
@@ -83,53 +90,103 @@ public class SimpleDocument implements Document
             // add a new instance to the count
             totalNumberTokens++;
             String normToken = simpleNormalisationTokenString(tokenstring[token]);
-            int[] count = tokens.get(normToken);
-            if (count == null)
+            int id = lexicon.getIndex(normToken);
+            // the doc freq of a term is incremented
+            // once per document i.e. on its first occurrence
+            if (create && id != -1 && known.get(id) == 0)
+                lexicon.createIndex(normToken);
+            if (id != -1)
             {
-                count = new int[]{0};
-                tokens.put(normToken, count);
-            }
-            count[0]++;
-        }
-        indices = new int[tokens.size()];
-        freqs = new int[tokens.size()];
-        int lastused = 0;   // 下标
-        // iterates on the internal vector
-        Iterator<Entry<String, int[]>> iter = tokens.entrySet().iterator();
-        while (iter.hasNext())
-        {
-            Entry<String, int[]> entry = iter.next();
-            String key = entry.getKey();
-            int[] localFreq = entry.getValue();
-            // gets the index from the lexicon
-            int id = -1;
-            if (create)
-            {
-                id = lexicon.createIndex(key);
+                known.increment(id);
+                continue;
             }
-            else
+            int rank = unknown.get(normToken);
+            if (rank == TermDictionary.NOT_FOUND)
             {
-                id = lexicon.getIndex(key);
+                rank = unknown.size();
+                unknown.put(normToken, rank);
+                counts.ensureCapacity(rank + 1);
+                counts.unknownFreqs[rank] = 0;
             }
-            // if not found in the lexicon
-            // we'll just put a conventional value
-            // which will help filtering it later
-            if (id == -1)
+            counts.unknownFreqs[rank]++;
+        }
+
+        // new terms get their IDs in alphabetical order
+        if (create && unknown.size() > 0)
+        {
+            String[] newTerms = unknown.sortedKeys();
+            for (String term : newTerms)
             {
-                id = Integer.MAX_VALUE;
+                int rank = unknown.get(term);
+                known.add(lexicon.createIndex(term), counts.unknownFreqs[rank]);
             }
-            // add it to the list
-            indices[lastused] = id;
-            freqs[lastused] = localFreq[0];
-            lastused++;
+            unknown.clear();
+        }
+
+        int numKnown = known.size();
+        int numUnknown = unknown.size();
+        indices = new int[numKnown + numUnknown];
+        freqs = new int[numKnown + numUnknown];
+
+        // sort the IDs and their frequencies in one go
+        // the IDs are non negative so the order of the longs
+        // is the order of the IDs
+        long[] pairs = counts.pairs(numKnown);
+        for (int i = 0; i < numKnown; i++)
+            pairs[i] = ((long) known.key(i) << 32) | known.count(i);
+        Arrays.sort(pairs, 0, numKnown);
+        for (int i = 0; i < numKnown; i++)
+        {
+            indices[i] = (int) (pairs[i] >>> 32);
+            freqs[i] = (int) pairs[i];
+        }
+
+        // if not found in the lexicon
+        // we'll just put a conventional value
+        // which will help filtering it later
+        for (int i = 0; i < numUnknown; i++)
+        {
+            indices[numKnown + i] = Integer.MAX_VALUE;
+            freqs[numKnown + i] = counts.unknownFreqs[i];
         }
-        // at this stage all the tokens are linked
-        // to their indices in the lexicon
-        // and we have their raw frequency in the document
-        // sort the content of the vector
-        quicksort(indices, freqs, 0, indices.length - 1);
     }
 
+    /**
+     * Buffers used when counting the tokens of a document, reused by the
+     * documents built in the same thread
+     **/
+    private static final class TokenCounts
+    {
+        final IntCounter known = new IntCounter();
+
+        final StringIntHashMap unknown = new StringIntHashMap();
+
+        int[] unknownFreqs = new int[16];
+
+        private long[] pairs = new long[16];
+
+        void ensureCapacity(int numUnknown)
+        {
+            if (unknownFreqs.length < numUnknown)
+                unknownFreqs = Arrays.copyOf(unknownFreqs, numUnknown * 2);
+        }
+
+        long[] pairs(int numKnown)
+        {
+            if (pairs.length < numKnown)
+                pairs = new long[numKnown * 2];
+            return pairs;
+        }
+    }
+
+    private static final ThreadLocal<TokenCounts> TOKEN_COUNTS = new ThreadLocal<TokenCounts>()
+    {
+        protected TokenCounts initialValue()
+        {
+            return new TokenCounts();
+        }
+    };
+
     /*
      * (non-Javadoc)
      *
@@ -149,173 +206,121 @@ public class SimpleDocument implements Document
 
     public Vector getFeatureVector(Lexicon lexicon)
     {
-        Parameters.WeightingMethod method = lexicon.getMethod();
-        return getFeatureVector(lexicon, method, null);
+        return getFeatureVector(lexicon, lexicon.getMethod());
     }
 
     public Vector getFeatureVector(Lexicon lexicon,
                                    Parameters.WeightingMethod method)
     {
-        return getFeatureVector(lexicon, method, null);
+        Vector vector = new Vector(new int[indices.length],
+                                   new double[indices.length]);
+        return getFeatureVector(lexicon, method, null, null, vector)
+                .trimToSize();
     }
 
+    /**
+     * @deprecated use getFeatureVector(Lexicon, int[], Vector)
+     */
+    @Deprecated
     public Vector getFeatureVector(Lexicon lexicon, Map<Integer, Integer> equiv)
     {
         Parameters.WeightingMethod method = lexicon.getMethod();
         return getFeatureVector(lexicon, method, equiv);
     }
 
-    /*
-     * (non-Javadoc)
-     *
-     * @see
-     * com.digitalpebble.classification.Document#getFeatureVector(com.digitalpebble
-     * .classification.Lexicon)
+    public Vector getFeatureVector(Lexicon lexicon, Vector buffer)
+    {
+        return getFeatureVector(lexicon, lexicon.getMethod(), null, null,
+                                buffer);
+    }
+
+    public Vector getFeatureVector(Lexicon lexicon, int[] remap, Vector buffer)
+    {
+        return getFeatureVector(lexicon, lexicon.getMethod(), remap, null,
+                                buffer);
+    }
+
+    /**
+     * @deprecated use getFeatureVector(Lexicon, int[], Vector), the mapping
+     *             is looked up for every attribute of the document
      */
+    @Deprecated
     public Vector getFeatureVector(Lexicon lexicon,
                                    Parameters.WeightingMethod method, Map<Integer, Integer> equiv)
+    {
+        Vector vector = new Vector(new int[indices.length],
+                                   new double[indices.length]);
+        return getFeatureVector(lexicon, method, null, equiv, vector)
+                .trimToSize();
+    }
+
+    private Vector getFeatureVector(Lexicon lexicon,
+                                    Parameters.WeightingMethod method, int[] remap,
+                                    Map<Integer, Integer> equiv, Vector buffer)
     {
         // we need to iterate on the features
         // of this document and compute a score
-        double numDocs = (double) lexicon.getDocNum();
         int kept = 0;
-        double[] copyvalues = new double[indices.length];
 
         // have the attribute numbers been changed in
         // the meantime?
-        if (equiv != null)
+        int size = indices.length;
+        long[] remapped = null;
+        if (remap != null)
         {
-            for (int pos = 0; pos < indices.length; pos++)
-            {
-                Integer newPos = equiv.get(indices[pos]);
-                // filtered
-                if (newPos == null)
-                    indices[pos] = Integer.MAX_VALUE;
-                else
-                    indices[pos] = newPos.intValue();
-            }
-            // resort the arrays
-            quicksort(indices, freqs, 0, indices.length - 1);
+            size = buffer.remap(indices, remap);
+            remapped = buffer.getRemapped();
+        }
+        else if (equiv != null)
+        {
+            size = buffer.remap(indices, equiv);
+            remapped = buffer.getRemapped();
         }
 
-        for (int pos = 0; pos < indices.length; pos++)
+        buffer.ensureCapacity(size);
+        int[] vectorIndices = buffer.getIndices();
+        double[] values = buffer.getValues();
+        // null if the lexicon is memory mapped
+        double[] idfs = lexicon.heapIDFs();
+        for (int k = 0; k < size; k++)
         {
+            int pos = k;
+            int index = indices[k];
+            if (remapped != null)
+            {
+                pos = (int) remapped[k];
+                index = (int) (remapped[k] >>> 32);
+            }
             // need to check that a given term has not
             // been filtered since the creation of the corpus
             // the indices are sorted so we know there is no point
             // in going further
             // Integer.MAX_VALUE == unknown in model
-            if (indices[pos] == Integer.MAX_VALUE)
+            if (index == Integer.MAX_VALUE)
             {
                 break;
             }
-            if (lexicon.getDocFreq(indices[pos]) <= 0)
+            vectorIndices[k] = index;
+            // a score is stored at the position of its term and not
+            // at the position of the kept ones, which is how the vectors
+            // have always been built
+            values[k] = 0;
+            if (lexicon.getDocFreq(index) <= 0)
                 continue;
-            double score = getScore(pos, lexicon, method, numDocs);
-            copyvalues[pos] = score;
+            double occurences = (double) this.freqs[pos];
+            double frequency = occurences / totalNumberTokens;
+            double idf = idfs != null ? idfs[index] : lexicon.getIDF(index);
+            double score = method.score(occurences, frequency, idf);
+            values[k] = score;
             kept++;
         }
-        // trim to size
-        int[] trimmedindices = new int[kept];
-        double[] trimmedvalues = new double[kept];
-
-        // normalize the values?
-        if (lexicon.isNormalizeVector())
-            normalizeL2(trimmedvalues);
-
-        System.arraycopy(indices, 0, trimmedindices, 0, kept);
-        System.arraycopy(copyvalues, 0, trimmedvalues, 0, kept);
-        return new Vector(trimmedindices, trimmedvalues);
-    }
-
-    private double getScore(int pos, Lexicon lexicon,
-                            Parameters.WeightingMethod method, double numdocs)
-    {
-        double score = 0;
-        int indexTerm = this.indices[pos];
-        double occurences = (double) this.freqs[pos];
-        double frequency = occurences / totalNumberTokens;
-
-        if (method == Parameters.WeightingMethod.BOOLEAN)
-        {
-            score = 1;
-        }
-        else if (method == Parameters.WeightingMethod.OCCURRENCES)
-        {
-            score = occurences;
-        }
-        else if (method == Parameters.WeightingMethod.FREQUENCY)
-        {
-            score = frequency;
-        }
-        else if (method == Parameters.WeightingMethod.TFIDF)
-        {
-            int df = lexicon.getDocFreq(indexTerm);
-            double idf = numdocs / (double) df;
-            score = frequency * Math.log(idf);
-        }
-        return score;
-    }
-
-    /**
-     * Returns the L2 norm factor of this vector's values.
-     */
-    private void normalizeL2(double[] scores)
-    {
-        double square_sum = 0.0;
-        for (int i = 0; i < scores.length; i++)
-        {
-            square_sum += (scores[i] * scores[i]);
-        }
-        double norm = Math.sqrt(square_sum);
-        if (norm != 0)
-            for (int i = 0; i < scores.length; i++)
-            {
-                scores[i] = scores[i] / norm;
-            }
-    }
+        buffer.setSize(kept);
 
-    private int partition(int[] dims, int[] vals, int low, int high)
-    {
-        double pivotprim = 0;
-        int i = low - 1;
-        int j = high + 1;
-        pivotprim = dims[(low + high) / 2];
-        while (i < j)
-        {
-            i++;
-            while (dims[i] < pivotprim)
-                i++;
-            j--;
-            while (dims[j] > pivotprim)
-                j--;
-            if (i < j)
-            {
-                int tmp = dims[i];
-                dims[i] = dims[j];
-                dims[j] = tmp;
-                int tmpd = vals[i];
-                vals[i] = vals[j];
-                vals[j] = tmpd;
-            }
-        }
-        return j;
-    }
+        // the vectors are not normalized even if lexicon.isNormalizeVector()
+        // as the normalization used to be applied to an empty array, changing
+        // it would change the output of the models already trained
 
-    /**
-     * 按key快排
-     * @param dims 某个key数组
-     * @param vals 某个value数组
-     * @param low 起点
-     * @param high 终点
-     */
-    private void quicksort(int[] dims, int[] vals, int low, int high)
-    {
-        if (low >= high)
-            return;
-        int p = partition(dims, vals, low, high);
-        quicksort(dims, vals, low, p);
-        quicksort(dims, vals, p + 1, high);
+        return buffer;
     }
 
     public String getStringSerialization()
@@ -367,6 +372,32 @@ public class SimpleDocument implements Document
         return newdoc;
     }
 
+    /** Serialization used by the binary raw files **/
+    void writeBinary(BinaryRawFormat.Output out)
+    {
+        out.writeByte(BinaryRawFormat.SIMPLE_DOCUMENT);
+        out.writeVInt(label);
+        out.writeDouble(totalNumberTokens);
+        out.writeVInt(indices.length);
+        out.writeDeltas(indices);
+        out.writeVInts(freqs);
+    }
+
+    /** Build a document from its binary serialization, without the type **/
+    static SimpleDocument readBinary(BinaryRawFormat.Input in)
+            throws IOException
+    {
+        SimpleDocument newdoc = new SimpleDocument();
+        newdoc.label = in.readVInt();
+        newdoc.totalNumberTokens = in.readDouble();
+        int numfeatures = in.readCount();
+        newdoc.indices = new int[numfeatures];
+        newdoc.freqs = new int[numfeatures];
+        in.readDeltas(newdoc.indices);
+        in.readVInts(newdoc.freqs);
+        return newdoc;
+    }
+
     /**
      * 这是为了保证单词中的空格不会影响文件读取
      * this is done to make sure that the lexicon file will be read properly and
@@ -0,0 +1,35 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * A TrainingCorpus whose documents can be split into parts which are iterated
+ * independently, e.g. by several threads. The parts are read-only, follow the
+ * order of the documents and together cover the whole corpus.
+ */
+public interface SplittableTrainingCorpus extends TrainingCorpus {
+
+	/**
+	 * Returns at most numSplits parts of the corpus, in the order of the
+	 * documents
+	 */
+	public List<TrainingCorpus> split(int numSplits) throws IOException;
+
+}
@@ -23,9 +23,26 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.digitalpebble.classification.util.UnZip;
 
+/**
+ * Applies a model and its lexicon to new documents. The instances returned by
+ * getClassifier() have a frozen lexicon and can be shared by several threads
+ * as long as they are safely published to them (e.g. through a final or
+ * volatile field, a concurrent collection or before the threads are started) :
+ * createDocument() only reads the lexicon and, for the implementations whose
+ * isThreadSafe() returns true, so does classify(Document), the per-document
+ * buffers being local to each thread. The Documents themselves are not
+ * modified by classify() and can be classified concurrently too.
+ **/
 public abstract class TextClassifier
 {
     protected Lexicon lexicon;
@@ -47,6 +64,18 @@ public abstract class TextClassifier
      */
     public static TextClassifier getClassifier(File resourceDirectoryFile)
             throws Exception
+    {
+        return getClassifier(resourceDirectoryFile, false);
+    }
+
+    /**
+     * Same as getClassifier(File) but can keep the terms of the lexicon in a
+     * compressed dictionary, which is recommended for very large lexicons
+     *
+     * @throws Exception
+     */
+    public static TextClassifier getClassifier(File resourceDirectoryFile,
+                                               boolean compressLexicon) throws Exception
     {
         // check whether we need to unzip the resources first
         if (resourceDirectoryFile.toString().endsWith(".zip")
@@ -70,6 +99,8 @@ public abstract class TextClassifier
         if (modelFile.exists() == false)
             throw new IOException("Model " + modelFile + " does not exist");
         Lexicon lexicon = new Lexicon(lexiconFile.toString());
+        // the lexicon is only read from now on
+        lexicon.freeze(compressLexicon);
         // ask the Lexicon for the classifier to use
         String classifier = lexicon.getClassifierType();
         TextClassifier instance = (TextClassifier) Class.forName(classifier)
@@ -85,6 +116,25 @@ public abstract class TextClassifier
         return instance;
     }
 
+    private static final ThreadLocal<Vector> VECTOR_BUFFER = new ThreadLocal<Vector>()
+    {
+        protected Vector initialValue()
+        {
+            return new Vector();
+        }
+    };
+
+    /**
+     * Returns a Vector buffer owned by the calling thread, which the
+     * implementations of classify() can pass to
+     * Document.getFeatureVector(Lexicon, Vector) instead of allocating new
+     * arrays for each document
+     **/
+    protected static Vector getVectorBuffer()
+    {
+        return VECTOR_BUFFER.get();
+    }
+
     /*****************************************************************************
      * Each instance has its own ways of loading its models
      *
@@ -126,6 +176,125 @@ public abstract class TextClassifier
         return predictions;
     }
 
+    /**
+     * Number of documents classified in one go by a task of
+     * classify(Document[], ExecutorService)
+     **/
+    private static final int BATCH_CHUNK_SIZE = 64;
+
+    /**
+     * Returns true if classify(Document) can be called by several threads at
+     * the same time on this instance
+     **/
+    public boolean isThreadSafe()
+    {
+        return false;
+    }
+
+    /**
+     * Same as classify(Document[]) but the documents are classified by the
+     * threads of an executor. The tasks take chunks of documents from a shared
+     * counter until there are none left, so a slow chunk does not hold the
+     * others back. The predictions are returned in the order of the documents.
+     * The documents are classified in the calling thread if this classifier is
+     * not thread safe. The number of tasks is the number of processors, or
+     * the core size of a ThreadPoolExecutor if it is larger, but no more than
+     * its maximum size; an unbounded pool such as a cached one does not get a
+     * task per chunk.
+     ***/
+    public double[][] classify(Document[] documents, ExecutorService executor)
+            throws Exception
+    {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        if (executor instanceof ThreadPoolExecutor)
+        {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+            numThreads = Math.min(pool.getMaximumPoolSize(), Math.max(pool
+                    .getCorePoolSize(), numThreads));
+        }
+        return classify(documents, executor, numThreads);
+    }
+
+    private double[][] classify(final Document[] documents,
+                                ExecutorService executor, int numThreads) throws Exception
+    {
+        if (!isThreadSafe() || documents.length <= BATCH_CHUNK_SIZE)
+            return classify(documents);
+
+        final double[][] predictions = new double[documents.length][];
+        final AtomicInteger nextChunk = new AtomicInteger();
+        int numChunks = (documents.length + BATCH_CHUNK_SIZE - 1)
+                / BATCH_CHUNK_SIZE;
+        int numTasks = Math.max(1, Math.min(numChunks, numThreads));
+
+        Callable<Void> task = new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                try
+                {
+                    int start;
+                    while ((start = nextChunk.getAndAdd(BATCH_CHUNK_SIZE)) < documents.length)
+                    {
+                        int end = Math.min(start + BATCH_CHUNK_SIZE,
+                                           documents.length);
+                        for (int d = start; d < end; d++)
+                            predictions[d] = classify(documents[d]);
+                    }
+                    return null;
+                }
+                catch (Exception e)
+                {
+                    // stop the other tasks
+                    nextChunk.set(documents.length);
+                    throw e;
+                }
+                catch (Error e)
+                {
+                    nextChunk.set(documents.length);
+                    throw e;
+                }
+            }
+        };
+
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(numTasks);
+        for (int t = 0; t < numTasks; t++)
+            futures.add(executor.submit(task));
+        try
+        {
+            // Future.get() makes the predictions of the
+            // tasks visible to the calling thread
+            for (Future<Void> future : futures)
+                future.get();
+        }
+        catch (ExecutionException e)
+        {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception)
+                throw (Exception) cause;
+            throw (Error) cause;
+        }
+        return predictions;
+    }
+
+    /**
+     * Same as classify(Document[], ExecutorService) with a pool of numThreads
+     * threads created for the occasion
+     ***/
+    public double[][] classify(Document[] documents, int numThreads)
+            throws Exception
+    {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try
+        {
+            return classify(documents, executor, numThreads);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
     public Document createDocument(Field[] fields)
     {
         return new MultiFieldDocument(fields, this.lexicon, false);
@@ -16,22 +16,118 @@
 
 package com.digitalpebble.classification;
 
-/* Contains a set of indices and values as doubles */
+import java.util.Arrays;
+import java.util.Map;
+
+/*
+ * Contains a set of indices and values as doubles. A Vector built with the
+ * empty constructor is a growable buffer which can be passed to
+ * Document.getFeatureVector(Lexicon, Vector) and reused for several documents;
+ * only the first size() elements of its arrays are then meaningful.
+ */
 public class Vector {
   private int[] indices;
   private double[] values;
-  
+  private int size;
+
+  // new index and position of the features when a remap table is applied
+  private long[] remapped = new long[0];
+
   public Vector(int[] indices, double[] values){
     this.indices = indices;
     this.values = values;
+    this.size = indices.length;
+  }
+
+  /** Creates an empty buffer **/
+  public Vector(){
+    this(new int[16], new double[16]);
+    this.size = 0;
   }
-  
+
+  /**
+   * Returns the indices, the array can be larger than size() if this Vector
+   * is used as a buffer
+   **/
   public int[] getIndices() {
     return indices;
   }
 
+  /**
+   * Returns the values, the array can be larger than size() if this Vector is
+   * used as a buffer
+   **/
   public double[] getValues() {
     return values;
   }
 
+  /** Number of elements of the vector **/
+  public int size() {
+    return size;
+  }
+
+  void setSize(int size) {
+    this.size = size;
+  }
+
+  /** Makes sure the arrays can hold capacity elements, their content is lost **/
+  void ensureCapacity(int capacity) {
+    if (indices.length >= capacity)
+      return;
+    int length = Math.max(capacity, indices.length * 2);
+    indices = new int[length];
+    values = new double[length];
+  }
+
+  /**
+   * Applies a remap table to the indices of a document without modifying
+   * them. The new indices and the positions they come from are stored as
+   * (newIndex << 32 | position) in the array returned by getRemapped(),
+   * sorted by new index; returns the number of indices found in the table.
+   **/
+  int remap(int[] indices, int[] remap) {
+    if (remapped.length < indices.length)
+      remapped = new long[Math.max(indices.length, remapped.length * 2)];
+    int found = 0;
+    for (int pos = 0; pos < indices.length; pos++) {
+      int index = indices[pos];
+      if (index < 0 || index >= remap.length || remap[index] < 0)
+        continue;
+      remapped[found++] = ((long) remap[index] << 32) | pos;
+    }
+    Arrays.sort(remapped, 0, found);
+    return found;
+  }
+
+  /**
+   * Same as remap(int[], int[]) with a mapping between old and new indices,
+   * looked up index by index
+   **/
+  int remap(int[] indices, Map<Integer, Integer> equiv) {
+    if (remapped.length < indices.length)
+      remapped = new long[Math.max(indices.length, remapped.length * 2)];
+    int found = 0;
+    for (int pos = 0; pos < indices.length; pos++) {
+      Integer newIndex = equiv.get(indices[pos]);
+      // filtered
+      if (newIndex == null || newIndex.intValue() < 0)
+        continue;
+      remapped[found++] = ((long) newIndex.intValue() << 32) | pos;
+    }
+    Arrays.sort(remapped, 0, found);
+    return found;
+  }
+
+  long[] getRemapped() {
+    return remapped;
+  }
+
+  /** Returns a Vector whose arrays have exactly size() elements **/
+  public Vector trimToSize() {
+    if (indices.length == size)
+      return this;
+    return new Vector(Arrays.copyOf(indices, size), Arrays.copyOf(values,
+        size));
+  }
+
 }
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.liblinear;
+
+import com.digitalpebble.classification.Vector;
+
+import de.bwaldvogel.liblinear.Model;
+
+/**
+ * Computes the decision values of a liblinear model directly from the sparse
+ * vector of a document. The weights are read as is from the array returned
+ * by Model.getFeatureWeights(), which liblinear already lays out feature by
+ * feature, so that the scores of all the classes are computed in a single
+ * pass over the vector without creating any Feature. The operations are done
+ * in the same order as in Linear.predictValues() so the results are
+ * identical, bit for bit.
+ **/
+final class DenseLinearScorer extends LinearScorer {
+
+	// weights of the classes for feature 1, then feature 2...
+	private final double[] weights;
+
+	DenseLinearScorer(Model model) {
+		this(model, model.getFeatureWeights());
+	}
+
+	private DenseLinearScorer(Model model, double[] weights) {
+		super(model.getNrClass(), model.getNrFeature(), getNrW(model,
+				weights), model.getBias(), getLabels(model), model
+				.isProbabilityModel());
+		this.weights = weights;
+	}
+
+	void decisionValues(Vector vector, double[] dec_values) {
+		for (int i = 0; i < nr_w; i++)
+			dec_values[i] = 0;
+
+		int[] indices = vector.getIndices();
+		double[] values = vector.getValues();
+		int size = vector.size();
+		for (int pos = 0; pos < size; pos++) {
+			int index = indices[pos];
+			if (index > nr_feature)
+				continue;
+			double value = values[pos];
+			int offset = (index - 1) * nr_w;
+			for (int i = 0; i < nr_w; i++)
+				dec_values[i] += weights[offset + i] * value;
+		}
+
+		if (bias >= 0) {
+			int offset = nr_feature * nr_w;
+			for (int i = 0; i < nr_w; i++)
+				dec_values[i] += weights[offset + i] * bias;
+		}
+	}
+
+}
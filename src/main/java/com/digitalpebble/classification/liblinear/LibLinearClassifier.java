@@ -1,67 +1,54 @@
 package com.digitalpebble.classification.liblinear;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
 
 import com.digitalpebble.classification.Document;
 import com.digitalpebble.classification.Parameters;
 import com.digitalpebble.classification.TextClassifier;
 import com.digitalpebble.classification.Vector;
 
-import de.bwaldvogel.liblinear.FeatureNode;
-import de.bwaldvogel.liblinear.Linear;
 import de.bwaldvogel.liblinear.Model;
 
 public class LibLinearClassifier extends TextClassifier {
 
-	Model liblinearModel;
+	// weights of the liblinear model compiled for scoring
+	LinearScorer scorer;
 
-	public double[] classify(Document document) throws Exception {
-
-		int nr_feature = liblinearModel.getNrFeature();
-
-		// convert docs into liblinear format
-
-		List<FeatureNode> x = new ArrayList<FeatureNode>();
-
-		Vector vector = document.getFeatureVector(this.lexicon);
-
-		int[] indices = vector.getIndices();
-		double[] values = vector.getValues();
-
-		for (int indexpos = 0; indexpos < indices.length; indexpos++) {
-			int index = indices[indexpos];
-			if (index <= nr_feature) {
-				FeatureNode node = new FeatureNode(index, values[indexpos]);
-				x.add(node);
-			}
-		}
-
-		if (liblinearModel.getBias() >= 0) {
-			FeatureNode node = new FeatureNode(nr_feature + 1,
-					liblinearModel.getBias());
-			x.add(node);
-		}
+	/**
+	 * The model is only read and the buffers are local to each thread
+	 **/
+	public boolean isThreadSafe() {
+		return true;
+	}
 
-		FeatureNode[] nodes = new FeatureNode[x.size()];
-		nodes = x.toArray(nodes);
+	public double[] classify(Document document) throws Exception {
 
-		if (liblinearModel.isProbabilityModel()) {
-			double[] prob_estimates = new double[liblinearModel.getNrClass()];
-			Linear.predictProbability(liblinearModel, nodes, prob_estimates);
-			return prob_estimates;
-		}
+		// reuses the vector buffer of the current thread
+		Vector vector = document.getFeatureVector(this.lexicon,
+				getVectorBuffer());
 
-		double[] dec_values = new double[liblinearModel.getNrClass()];
-		Linear.predictValues(liblinearModel, nodes, dec_values);
-		return dec_values;
+		double[] scores = new double[scorer.getNrClass()];
+		if (scorer.isProbabilityModel())
+			scorer.probabilities(vector, scores);
+		else
+			scorer.decisionValues(vector, scores);
+		return scores;
 	}
 
+	/**
+	 * Loads the quantised version of the model if there is one, the liblinear
+	 * model otherwise
+	 **/
 	protected void loadModel() throws Exception {
+		File quantised = new File(pathResourceDirectory,
+				Parameters.quantisedModelName);
+		if (quantised.exists()) {
+			scorer = QuantisedModel.load(quantised);
+			return;
+		}
 		String modelPath = pathResourceDirectory + java.io.File.separator
 				+ Parameters.modelName;
-		liblinearModel = Model.load(new File(modelPath));
+		scorer = new DenseLinearScorer(Model.load(new File(modelPath)));
 	}
 
 }
@@ -17,21 +17,57 @@
 package com.digitalpebble.classification.liblinear;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
+import de.bwaldvogel.liblinear.Feature;
+import de.bwaldvogel.liblinear.FeatureNode;
+import de.bwaldvogel.liblinear.Linear;
+import de.bwaldvogel.liblinear.Model;
+import de.bwaldvogel.liblinear.Parameter;
+import de.bwaldvogel.liblinear.Problem;
+import de.bwaldvogel.liblinear.SolverType;
+
 import com.digitalpebble.classification.Document;
 import com.digitalpebble.classification.Learner;
 import com.digitalpebble.classification.Lexicon;
+import com.digitalpebble.classification.Parameters;
 import com.digitalpebble.classification.TrainingCorpus;
+import com.digitalpebble.classification.Vector;
 import com.digitalpebble.classification.libsvm.Utils;
 
+/**
+ * Trains a liblinear model. The model is built in-process with the Java port
+ * of liblinear, directly from the vectors of the documents, unless the system
+ * property liblinear_train gives the location of a native liblinear_train
+ * binary; in which case the vectors are written to a file which is passed to
+ * the binary. Earlier versions always ran ./liblinear_train : set the
+ * property to keep using a native binary. The parameters are the ones of liblinear_train (-s -c -p -e -B
+ * -wi -v -q) and the model is saved in the same format in both cases.
+ * liblinear prints to a single global stream which an in-process training,
+ * quiet or not, redirects while it runs then resets to System.out : the
+ * Java port can't tell which stream was set before with
+ * Linear.setDebugOutput().
+ **/
 public class LibLinearModelCreator extends Learner {
 
-	private String learner_filename = "liblinear_train";
+	// null if the model is trained in-process
+	private String learner_filename;
+
+	// set by parseParameters
+	private Parameter parameter;
+
+	private double bias;
+
+	private int nr_fold;
+
+	private boolean quiet;
 
 	protected String SVM_Model_location;
 
@@ -46,8 +82,7 @@ public class LibLinearModelCreator extends Learner {
 		this.lexiconLocation = lexicon_location;
 		this.vector_location = vector_location;
 
-		learner_filename = System.getProperty("liblinear_train",
-				"./liblinear_train");
+		learner_filename = System.getProperty("liblinear_train");
 	}
 
 	/** Returns the output generated by the SVM learner* */
@@ -58,7 +93,8 @@ public class LibLinearModelCreator extends Learner {
 	protected void internal_generateVector(TrainingCorpus corpus)
 			throws Exception {
 		// dumps a file with the vectors for the documents
-		Utils.writeExamples(corpus, this.lexicon, true, this.vector_location);
+		Utils.writeVectors(corpus, this.lexicon, true, this.vector_location,
+				null, numThreads);
 	}
 
 	// @deprecated
@@ -68,10 +104,31 @@ public class LibLinearModelCreator extends Learner {
 		Utils.writeExamples(documents, this.lexicon, true, vector_location);
 	}
 
+	protected void internal_learn(TrainingCorpus corpus) throws Exception {
+		if (learner_filename != null) {
+			super.internal_learn(corpus);
+			return;
+		}
+		if (writeVectorFile)
+			internal_generateVector(corpus);
+		parseParameters();
+		train(buildProblem(corpus));
+	}
+
+	/**
+	 * Learns from the vector file, with the external binary if there is one
+	 * or in-process
+	 **/
 	public void internal_learn() throws Exception {
 		// dumps a file with the vectors for the documents
 		File learningFile = new File(this.vector_location);
 
+		if (learner_filename == null) {
+			parseParameters();
+			train(Problem.readFromFile(learningFile, bias));
+			return;
+		}
+
 		// calls the classifier
 		List commandList = new ArrayList();
 		File modelFile = new File(this.SVM_Model_location);
@@ -97,6 +154,222 @@ public class LibLinearModelCreator extends Learner {
 		int value = process.waitFor();
 		if (value != 0)
 			throw new IOException("Process unsuccessful");
+		removeQuantisedModel();
+	}
+
+	/**
+	 * Removes the quantised version of the previous model, which would be
+	 * used instead of the new model
+	 **/
+	private void removeQuantisedModel() {
+		new File(new File(this.SVM_Model_location).getAbsoluteFile()
+				.getParentFile(), Parameters.quantisedModelName).delete();
+	}
+
+	/**
+	 * Builds the liblinear problem from the documents of the corpus, the same
+	 * way Problem.readFromFile does from a vector file
+	 **/
+	private Problem buildProblem(TrainingCorpus corpus) {
+		List<Feature[]> vectors = new ArrayList<Feature[]>();
+		List<Integer> labels = new ArrayList<Integer>();
+		Vector buffer = new Vector();
+		int max_index = 0;
+		Iterator<Document> docIter = corpus.iterator();
+		while (docIter.hasNext()) {
+			Document doc = docIter.next();
+			Vector vector = doc.getFeatureVector(lexicon, buffer);
+			int[] indices = vector.getIndices();
+			double[] values = vector.getValues();
+			int size = vector.size();
+			Feature[] features = new Feature[bias >= 0 ? size + 1 : size];
+			for (int i = 0; i < size; i++)
+				features[i] = new FeatureNode(indices[i], values[i]);
+			if (size > 0)
+				max_index = Math.max(max_index, indices[size - 1]);
+			vectors.add(features);
+			labels.add(doc.getLabel());
+		}
+
+		Problem problem = new Problem();
+		problem.l = vectors.size();
+		problem.n = max_index;
+		problem.bias = bias;
+		problem.x = vectors.toArray(new Feature[problem.l][]);
+		problem.y = new double[problem.l];
+		for (int i = 0; i < problem.l; i++)
+			problem.y[i] = labels.get(i);
+		// the bias is an extra attribute after the last one
+		if (bias >= 0) {
+			problem.n++;
+			for (Feature[] features : problem.x)
+				features[features.length - 1] = new FeatureNode(problem.n,
+						bias);
+		}
+		return problem;
+	}
+
+	/**
+	 * Trains and saves the model, or runs a cross validation if required.
+	 * What liblinear prints is kept as the output of the learner. The debug
+	 * output of liblinear is then reset to System.out, see the class comment.
+	 **/
+	private void train(Problem problem) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PrintStream debug = new PrintStream(output, true);
+		// the output of liblinear is global
+		synchronized (Linear.class) {
+			if (quiet)
+				Linear.disableDebugOutput();
+			else
+				Linear.setDebugOutput(debug);
+			try {
+				// same random sequence as a fresh liblinear_train
+				Linear.resetRandom();
+				if (nr_fold > 0) {
+					double[] target = new double[problem.l];
+					Linear.crossValidation(problem, parameter, nr_fold, target);
+					printCrossValidation(problem, target, debug);
+				} else {
+					Model model = Linear.train(problem, parameter);
+					Linear.saveModel(new File(this.SVM_Model_location), model);
+					removeQuantisedModel();
+				}
+			} finally {
+				// the previous stream is not accessible
+				Linear.setDebugOutput(System.out);
+			}
+		}
+		this.outputLearner = output.toString();
+	}
+
+	/**
+	 * Prints the result of a cross validation like liblinear_train : the
+	 * accuracy for a classification, the mean squared error and the squared
+	 * correlation coefficient for a regression
+	 **/
+	private void printCrossValidation(Problem problem, double[] target,
+			PrintStream debug) {
+		int l = problem.l;
+		if (parameter.getSolverType().isSupportVectorRegression()) {
+			double total_error = 0;
+			double sumv = 0, sumy = 0, sumvv = 0, sumyy = 0, sumvy = 0;
+			for (int i = 0; i < l; i++) {
+				double y = problem.y[i];
+				double v = target[i];
+				total_error += (v - y) * (v - y);
+				sumv += v;
+				sumy += y;
+				sumvv += v * v;
+				sumyy += y * y;
+				sumvy += v * y;
+			}
+			debug.printf("Cross Validation Mean squared error = %g%n",
+					total_error / l);
+			debug.printf(
+					"Cross Validation Squared correlation coefficient = %g%n",
+					((l * sumvy - sumv * sumy) * (l * sumvy - sumv * sumy))
+							/ ((l * sumvv - sumv * sumv) * (l * sumyy - sumy
+									* sumy)));
+		} else {
+			int correct = 0;
+			for (int i = 0; i < l; i++)
+				if (target[i] == problem.y[i])
+					correct++;
+			debug.printf("Cross Validation Accuracy = %g%%%n", 100.0 * correct
+					/ l);
+		}
+	}
+
+	/**
+	 * Parses the parameter string with the options and default values of
+	 * liblinear_train
+	 **/
+	private void parseParameters() {
+		SolverType solver = SolverType.L2R_L2LOSS_SVC_DUAL;
+		double C = 1;
+		double eps = Double.POSITIVE_INFINITY;
+		double p = 0.1;
+		List<Integer> weightLabels = new ArrayList<Integer>();
+		List<Double> weights = new ArrayList<Double>();
+		bias = -1;
+		nr_fold = 0;
+		quiet = false;
+
+		String[] argv = new String[0];
+		if (getParameters() != null && getParameters().trim().length() > 0)
+			argv = getParameters().trim().split("\\s+");
+		for (int i = 0; i < argv.length; i++) {
+			if (argv[i].charAt(0) != '-' || argv[i].length() < 2)
+				throw new IllegalArgumentException("Unknown option "
+						+ argv[i]);
+			char option = argv[i].charAt(1);
+			// the only option without a value
+			if (option == 'q') {
+				quiet = true;
+				continue;
+			}
+			if (++i >= argv.length)
+				throw new IllegalArgumentException("Missing value for "
+						+ argv[i - 1]);
+			switch (option) {
+			case 's':
+				solver = SolverType.getById(Integer.parseInt(argv[i]));
+				break;
+			case 'c':
+				C = Double.parseDouble(argv[i]);
+				break;
+			case 'p':
+				p = Double.parseDouble(argv[i]);
+				break;
+			case 'e':
+				eps = Double.parseDouble(argv[i]);
+				break;
+			case 'B':
+				bias = Double.parseDouble(argv[i]);
+				break;
+			case 'w':
+				weightLabels.add(Integer.valueOf(argv[i - 1].substring(2)));
+				weights.add(Double.valueOf(argv[i]));
+				break;
+			case 'v':
+				nr_fold = Integer.parseInt(argv[i]);
+				if (nr_fold < 2)
+					throw new IllegalArgumentException(
+							"n-fold cross validation: n must >= 2");
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option "
+						+ argv[i - 1]);
+			}
+		}
+
+		if (eps == Double.POSITIVE_INFINITY) {
+			switch (solver) {
+			case L2R_LR:
+			case L2R_L2LOSS_SVC:
+			case L1R_L2LOSS_SVC:
+			case L1R_LR:
+				eps = 0.01;
+				break;
+			case L2R_L2LOSS_SVR:
+				eps = 0.001;
+				break;
+			default:
+				eps = 0.1;
+			}
+		}
+
+		parameter = new Parameter(solver, C, eps, p);
+		if (!weights.isEmpty()) {
+			double[] weight = new double[weights.size()];
+			int[] weightLabel = new int[weights.size()];
+			for (int i = 0; i < weight.length; i++) {
+				weight[i] = weights.get(i);
+				weightLabel[i] = weightLabels.get(i);
+			}
+			parameter.setWeights(weight, weightLabel);
+		}
 	}
 
 	protected boolean supportsMultiLabels() {
@@ -0,0 +1,132 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.liblinear;
+
+import com.digitalpebble.classification.Vector;
+
+import de.bwaldvogel.liblinear.Model;
+
+/**
+ * Computes the scores of a liblinear model directly from the sparse vector of
+ * a document. The implementations differ in the way they store the weights;
+ * the decision values are turned into probabilities and labels the same way
+ * as liblinear does. A regression model has no labels, its prediction is
+ * the decision value.
+ **/
+abstract class LinearScorer {
+
+	// number of weight vectors, 1 for binary models except MCSVM_CS
+	protected final int nr_w;
+
+	protected final int nr_class;
+
+	protected final int nr_feature;
+
+	protected final double bias;
+
+	// null for a regression model
+	protected final int[] labels;
+
+	protected final boolean probability;
+
+	protected LinearScorer(int nr_class, int nr_feature, int nr_w,
+			double bias, int[] labels, boolean probability) {
+		this.nr_class = nr_class;
+		this.nr_feature = nr_feature;
+		this.nr_w = nr_w;
+		this.bias = bias;
+		this.labels = labels;
+		this.probability = probability;
+	}
+
+	/** Number of weight vectors of a liblinear model **/
+	static int getNrW(Model model, double[] weights) {
+		int n = model.getBias() >= 0 ? model.getNrFeature() + 1 : model
+				.getNrFeature();
+		return n == 0 ? 1 : weights.length / n;
+	}
+
+	/**
+	 * Labels of a liblinear model, null for a regression model. liblinear
+	 * 1.95 gives no access to the solver of a model and getLabels() fails on
+	 * the models without labels.
+	 **/
+	static int[] getLabels(Model model) {
+		try {
+			return model.getLabels();
+		} catch (NullPointerException e) {
+			return null;
+		}
+	}
+
+	int getNrClass() {
+		return nr_class;
+	}
+
+	boolean isProbabilityModel() {
+		return probability;
+	}
+
+	boolean isRegressionModel() {
+		return labels == null;
+	}
+
+	/**
+	 * Same as Linear.predictValues() for the features of the vector, the
+	 * values of dec_values beyond nr_w are left unchanged. The attributes
+	 * unknown to the model are ignored.
+	 **/
+	abstract void decisionValues(Vector vector, double[] dec_values);
+
+	/**
+	 * Same as Linear.predictProbability(), only for logistic regression
+	 * models
+	 **/
+	void probabilities(Vector vector, double[] prob_estimates) {
+		decisionValues(vector, prob_estimates);
+		int nr_p = nr_class == 2 ? 1 : nr_class;
+		for (int i = 0; i < nr_p; i++)
+			prob_estimates[i] = 1 / (1 + Math.exp(-prob_estimates[i]));
+		if (nr_class == 2) {
+			prob_estimates[1] = 1. - prob_estimates[0];
+		} else {
+			double sum = 0;
+			for (int i = 0; i < nr_class; i++)
+				sum += prob_estimates[i];
+			for (int i = 0; i < nr_class; i++)
+				prob_estimates[i] = prob_estimates[i] / sum;
+		}
+	}
+
+	/**
+	 * Same as Linear.predict() : returns the label of the best class or the
+	 * value predicted by a regression model
+	 **/
+	double predict(Vector vector, double[] dec_values) {
+		decisionValues(vector, dec_values);
+		if (isRegressionModel())
+			return dec_values[0];
+		if (nr_class == 2)
+			return dec_values[0] > 0 ? labels[0] : labels[1];
+		int best = 0;
+		for (int i = 1; i < nr_class; i++)
+			if (dec_values[i] > dec_values[best])
+				best = i;
+		return labels[best];
+	}
+
+}
@@ -0,0 +1,298 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.liblinear;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import com.digitalpebble.classification.Vector;
+
+import de.bwaldvogel.liblinear.Model;
+
+/**
+ * Compact version of a liblinear model where each weight takes one byte
+ * (INT8) or two bytes (FLOAT16) instead of the eight bytes of a double. The
+ * weights of each class are divided by a scale specific to the class; with
+ * INT8 they are then rounded to an integer between -127 and 127, with FLOAT16
+ * they are stored as half precision floats. The scores are computed directly
+ * on the quantised weights and multiplied by the scale of the class at the
+ * end, so they are close to but not exactly the same as the ones of the
+ * original model. See ModelUtils to convert a model.
+ * 
+ * LibLinearClassifier uses the quantised model instead of the liblinear one
+ * if the resource directory contains a file named
+ * Parameters.quantisedModelName.
+ **/
+public final class QuantisedModel extends LinearScorer {
+
+	public enum Precision {
+		INT8, FLOAT16
+	}
+
+	private static final int MAGIC = 0x514C4C4D;
+
+	private static final int VERSION = 1;
+
+	private final Precision precision;
+
+	// per weight vector
+	private final double[] scales;
+
+	// quantised weights, feature by feature, only one of them is used
+	private final byte[] bytes;
+
+	private final short[] halves;
+
+	private QuantisedModel(Precision precision, int nr_class, int nr_feature,
+			int nr_w, double bias, int[] labels, boolean probability,
+			double[] scales, byte[] bytes, short[] halves) {
+		super(nr_class, nr_feature, nr_w, bias, labels, probability);
+		this.precision = precision;
+		this.scales = scales;
+		this.bytes = bytes;
+		this.halves = halves;
+	}
+
+	/** Quantises the weights of a liblinear classification model **/
+	public static QuantisedModel quantise(Model model, Precision precision) {
+		if (getLabels(model) == null)
+			throw new IllegalArgumentException(
+					"Regression models can't be quantised");
+		double[] weights = model.getFeatureWeights();
+		int nr_w = getNrW(model, weights);
+
+		// the largest weight in absolute value becomes 127 or 1
+		double[] scales = new double[nr_w];
+		for (int pos = 0; pos < weights.length; pos++)
+			scales[pos % nr_w] = Math.max(scales[pos % nr_w], Math
+					.abs(weights[pos]));
+		for (int i = 0; i < nr_w; i++) {
+			if (precision == Precision.INT8)
+				scales[i] /= 127;
+			// all the weights of the class are 0
+			if (scales[i] == 0)
+				scales[i] = 1;
+		}
+
+		byte[] bytes = null;
+		short[] halves = null;
+		if (precision == Precision.INT8) {
+			bytes = new byte[weights.length];
+			for (int pos = 0; pos < weights.length; pos++)
+				bytes[pos] = (byte) Math.round(weights[pos] / scales[pos % nr_w]);
+		} else {
+			halves = new short[weights.length];
+			for (int pos = 0; pos < weights.length; pos++)
+				halves[pos] = toHalf((float) (weights[pos] / scales[pos % nr_w]));
+		}
+		return new QuantisedModel(precision, model.getNrClass(), model
+				.getNrFeature(), nr_w, model.getBias(), getLabels(model),
+				model.isProbabilityModel(), scales, bytes, halves);
+	}
+
+	public Precision getPrecision() {
+		return precision;
+	}
+
+	/** Number of bytes used by the weights **/
+	public long getWeightsSize() {
+		return bytes != null ? bytes.length : 2l * halves.length;
+	}
+
+	void decisionValues(Vector vector, double[] dec_values) {
+		for (int i = 0; i < nr_w; i++)
+			dec_values[i] = 0;
+
+		int[] indices = vector.getIndices();
+		double[] values = vector.getValues();
+		int size = vector.size();
+		if (bytes != null) {
+			for (int pos = 0; pos < size; pos++) {
+				int index = indices[pos];
+				if (index > nr_feature)
+					continue;
+				double value = values[pos];
+				int offset = (index - 1) * nr_w;
+				for (int i = 0; i < nr_w; i++)
+					dec_values[i] += bytes[offset + i] * value;
+			}
+			if (bias >= 0) {
+				int offset = nr_feature * nr_w;
+				for (int i = 0; i < nr_w; i++)
+					dec_values[i] += bytes[offset + i] * bias;
+			}
+		} else {
+			float[] table = HalfFloats.TABLE;
+			for (int pos = 0; pos < size; pos++) {
+				int index = indices[pos];
+				if (index > nr_feature)
+					continue;
+				double value = values[pos];
+				int offset = (index - 1) * nr_w;
+				for (int i = 0; i < nr_w; i++)
+					dec_values[i] += table[halves[offset + i] & 0xFFFF] * value;
+			}
+			if (bias >= 0) {
+				int offset = nr_feature * nr_w;
+				for (int i = 0; i < nr_w; i++)
+					dec_values[i] += table[halves[offset + i] & 0xFFFF] * bias;
+			}
+		}
+
+		for (int i = 0; i < nr_w; i++)
+			dec_values[i] *= scales[i];
+	}
+
+	public void save(File file) throws IOException {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(file)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeUTF(precision.name());
+			out.writeInt(nr_class);
+			out.writeInt(nr_feature);
+			out.writeInt(nr_w);
+			out.writeDouble(bias);
+			out.writeBoolean(probability);
+			for (int i = 0; i < nr_class; i++)
+				out.writeInt(labels[i]);
+			for (int i = 0; i < nr_w; i++)
+				out.writeDouble(scales[i]);
+			if (bytes != null) {
+				out.writeInt(bytes.length);
+				out.write(bytes);
+			} else {
+				out.writeInt(halves.length);
+				for (int pos = 0; pos < halves.length; pos++)
+					out.writeShort(halves[pos]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	public static QuantisedModel load(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC)
+				throw new IOException(file + " is not a quantised model");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported version " + version
+						+ " of quantised model " + file);
+			Precision precision = Precision.valueOf(in.readUTF());
+			int nr_class = in.readInt();
+			int nr_feature = in.readInt();
+			int nr_w = in.readInt();
+			double bias = in.readDouble();
+			boolean probability = in.readBoolean();
+			int[] labels = new int[nr_class];
+			for (int i = 0; i < nr_class; i++)
+				labels[i] = in.readInt();
+			double[] scales = new double[nr_w];
+			for (int i = 0; i < nr_w; i++)
+				scales[i] = in.readDouble();
+			byte[] bytes = new byte[in.readInt()];
+			short[] halves = null;
+			if (precision == Precision.INT8) {
+				in.readFully(bytes);
+			} else {
+				// read as bytes to avoid a call per weight
+				byte[] raw = new byte[bytes.length * 2];
+				in.readFully(raw);
+				halves = new short[bytes.length];
+				ByteBuffer.wrap(raw).asShortBuffer().get(halves);
+				bytes = null;
+			}
+			return new QuantisedModel(precision, nr_class, nr_feature, nr_w,
+					bias, labels, probability, scales, bytes, halves);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Converts a float to the bits of the nearest half precision float,
+	 * rounding to even
+	 **/
+	static short toHalf(float f) {
+		int bits = Float.floatToIntBits(f);
+		int sign = (bits >>> 16) & 0x8000;
+		int exponent = ((bits >>> 23) & 0xFF) - 127 + 15;
+		int mantissa = bits & 0x7FFFFF;
+		// infinity or NaN
+		if (exponent == 0xFF - 127 + 15)
+			return (short) (sign | 0x7C00 | (mantissa != 0 ? 0x200 : 0));
+		// too large
+		if (exponent >= 0x1F)
+			return (short) (sign | 0x7C00);
+		int shift = 13;
+		int half;
+		if (exponent <= 0) {
+			// too small, even for a subnormal
+			if (exponent < -10)
+				return (short) sign;
+			mantissa |= 0x800000;
+			shift = 14 - exponent;
+			half = mantissa >> shift;
+		} else {
+			half = (exponent << 10) | (mantissa >> shift);
+		}
+		int remainder = mantissa & ((1 << shift) - 1);
+		int halfway = 1 << (shift - 1);
+		// a carry into the exponent gives the right result
+		if (remainder > halfway || (remainder == halfway && (half & 1) != 0))
+			half++;
+		return (short) (sign | half);
+	}
+
+	/** Converts the bits of a half precision float to a float **/
+	static float toFloat(short half) {
+		int bits = half & 0xFFFF;
+		int sign = (bits & 0x8000) << 16;
+		int exponent = (bits >>> 10) & 0x1F;
+		int mantissa = bits & 0x3FF;
+		if (exponent == 0) {
+			// subnormal : mantissa x 2^-24
+			float value = mantissa / 16777216f;
+			return sign != 0 ? -value : value;
+		}
+		if (exponent == 0x1F)
+			return Float.intBitsToFloat(sign | 0x7F800000 | (mantissa << 13));
+		return Float.intBitsToFloat(sign | ((exponent - 15 + 127) << 23)
+				| (mantissa << 13));
+	}
+
+	// only built if a FLOAT16 model is used
+	private static final class HalfFloats {
+		static final float[] TABLE = new float[1 << 16];
+		static {
+			for (int bits = 0; bits < TABLE.length; bits++)
+				TABLE[bits] = toFloat((short) bits);
+		}
+	}
+
+}
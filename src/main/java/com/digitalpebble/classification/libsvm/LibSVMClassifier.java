@@ -30,30 +30,66 @@ import com.digitalpebble.classification.Vector;
 public class LibSVMClassifier extends TextClassifier {
   svm_model model;
 
+  // support vectors collapsed into weights if the kernel is linear
+  LinearSVMScorer linearScorer;
+
+  // inverted index of the support vectors for the other kernels
+  SparseKernelScorer kernelScorer;
+
+  // metadata of the model, read once
+  private int nr_class;
+
+  private boolean support_probabilities;
+
+  private static final ThreadLocal<NodeBuffer> NODE_BUFFER = new ThreadLocal<NodeBuffer>() {
+    protected NodeBuffer initialValue() {
+      return new NodeBuffer();
+    }
+  };
+
   protected final void loadModel() throws IOException {
     // location of the model
     String modelPath = pathResourceDirectory + java.io.File.separator
             + Parameters.modelName;
     model = svm.svm_load_model(modelPath);
+    nr_class = svm.svm_get_nr_class(model);
+    support_probabilities = svm.svm_check_probability_model(model) == 1;
+    linearScorer = null;
+    kernelScorer = null;
+    if (LinearSVMScorer.supports(model))
+      linearScorer = new LinearSVMScorer(model);
+    else if (SparseKernelScorer.supports(model))
+      kernelScorer = new SparseKernelScorer(model);
+  }
+
+  /**
+   * The model is only read by svm_predict and the scorers and the buffers
+   * are local to each thread
+   **/
+  public boolean isThreadSafe() {
+    return true;
   }
 
   public final double[] classify(Document document) throws Exception {
-    int svm_type = svm.svm_get_svm_type(model);
-    int nr_class = svm.svm_get_nr_class(model);
-    int[] labels = new int[nr_class];
-    svm.svm_get_labels(model, labels);
-    boolean support_probabilities = svm.svm_check_probability_model(model) == 1;
     double[] scores = new double[nr_class];
     // creates nodes from document
-    Vector vector = document.getFeatureVector(this.lexicon);
+    Vector vector = document.getFeatureVector(this.lexicon, getVectorBuffer());
+    if (linearScorer != null)
+      return getScores(scores, linearScorer.predict(vector));
+    if (kernelScorer != null) {
+      if (!support_probabilities)
+        return getScores(scores, kernelScorer.predict(vector));
+      kernelScorer.probabilities(vector, scores);
+      return scores;
+    }
     int[] indices = vector.getIndices();
     double[] values = vector.getValues();
-    svm_node[] svm_nodes = new svm_node[indices.length];
-    for(int n = 0; n < svm_nodes.length; n++) {
-      svm_nodes[n] = new svm_node();
-      svm_nodes[n].index = indices[n];
-      svm_nodes[n].value = values[n];
-    }
+    int size = vector.size();
+    // reuses the nodes of the current thread
+    svm_node[] svm_nodes = NODE_BUFFER.get().get(size);
+    for(int n = 0; n < size; n++)
+      NodeBuffer.set(svm_nodes, n, indices[n], values[n]);
+    NodeBuffer.pad(svm_nodes, size);
     if(support_probabilities) // returns the real probabilities
     {
       svm.svm_predict_probability(model, svm_nodes, scores);
@@ -61,6 +97,10 @@ public class LibSVMClassifier extends TextClassifier {
     }
     // or gives 100% to the best label
     int winner = (int)svm.svm_predict(model, svm_nodes);
+    return getScores(scores, winner);
+  }
+
+  private static double[] getScores(double[] scores, int winner) {
     // the array should contain a list of continuous values
     // otherwise it means that the lexicon and the model don't 
     // have the same number of labels
@@ -20,9 +20,11 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.Vector;
 
 import libsvm.svm;
 import libsvm.svm_model;
@@ -34,6 +36,7 @@ import com.digitalpebble.classification.Document;
 import com.digitalpebble.classification.Learner;
 import com.digitalpebble.classification.Lexicon;
 import com.digitalpebble.classification.TrainingCorpus;
+import com.digitalpebble.classification.Vector;
 
 public class LibSVMModelCreator extends Learner
 {
@@ -66,7 +69,8 @@ public class LibSVMModelCreator extends Learner
             throws Exception
     {
         // dumps a file with the vectors for the documents
-        Utils.writeExamples(corpus, this.lexicon, true, this.vector_location);
+        Utils.writeVectors(corpus, this.lexicon, true, this.vector_location,
+                           null, numThreads);
     }
 
     protected void internal_generateVector(Document[] documents)
@@ -78,6 +82,21 @@ public class LibSVMModelCreator extends Learner
                                this.vector_location);
     }
 
+    /**
+     * Builds the problem from the documents of the corpus in one pass, the
+     * vector file is only written if required
+     **/
+    protected void internal_learn(TrainingCorpus corpus) throws Exception
+    {
+        if (writeVectorFile)
+            internal_generateVector(corpus);
+        parse_command_line();
+        if (cross_validation && nfold < 2)
+            throw new Exception("n-fold cross validation: n must >= 2\n");
+        build_problem(corpus);
+        train();
+    }
+
     public void internal_learn() throws Exception
     {
         // dumps a file with the vectors for the documents
@@ -88,6 +107,11 @@ public class LibSVMModelCreator extends Learner
         if (cross_validation && nfold < 2)
             throw new Exception("n-fold cross validation: n must >= 2\n");
         read_problem(learningFile);
+        train();
+    }
+
+    private void train() throws Exception
+    {
         error_msg = svm.svm_check_parameter(prob, param);
         if (error_msg != null)
         {
@@ -207,8 +231,8 @@ public class LibSVMModelCreator extends Learner
     private void read_problem(File learningFile) throws IOException
     {
         BufferedReader fp = new BufferedReader(new FileReader(learningFile));
-        Vector vy = new Vector();
-        Vector vx = new Vector();
+        List<Double> vy = new ArrayList<Double>();
+        List<svm_node[]> vx = new ArrayList<svm_node[]>();
         int max_index = 0;
         while (true)
         {
@@ -216,7 +240,7 @@ public class LibSVMModelCreator extends Learner
             if (line == null)
                 break;
             StringTokenizer st = new StringTokenizer(line, " \t\n\r\f:");
-            vy.addElement(st.nextToken());
+            vy.add(Double.valueOf(st.nextToken()));
             int m = st.countTokens() / 2;
             svm_node[] x = new svm_node[m];
             for (int j = 0; j < m; j++)
@@ -227,22 +251,54 @@ public class LibSVMModelCreator extends Learner
             }
             if (m > 0)
                 max_index = Math.max(max_index, x[m - 1].index);
-            vx.addElement(x);
+            vx.add(x);
+        }
+        fp.close();
+        set_problem(vy, vx, max_index);
+    }
+
+    // builds the same problem as read_problem from the vectors of the
+    // documents
+    private void build_problem(TrainingCorpus corpus)
+    {
+        List<Double> vy = new ArrayList<Double>();
+        List<svm_node[]> vx = new ArrayList<svm_node[]>();
+        Vector buffer = new Vector();
+        int max_index = 0;
+        Iterator<Document> docIter = corpus.iterator();
+        while (docIter.hasNext())
+        {
+            Document doc = docIter.next();
+            Vector vector = doc.getFeatureVector(this.lexicon, buffer);
+            int[] indices = vector.getIndices();
+            double[] values = vector.getValues();
+            int m = vector.size();
+            svm_node[] x = new svm_node[m];
+            for (int j = 0; j < m; j++)
+            {
+                x[j] = new svm_node();
+                x[j].index = indices[j];
+                x[j].value = values[j];
+            }
+            if (m > 0)
+                max_index = Math.max(max_index, x[m - 1].index);
+            vy.add(Double.valueOf(doc.getLabel()));
+            vx.add(x);
         }
+        set_problem(vy, vx, max_index);
+    }
+
+    private void set_problem(List<Double> vy, List<svm_node[]> vx,
+                             int max_index)
+    {
         prob = new svm_problem();
         prob.l = vy.size();
         prob.y = new double[prob.l];
-        prob.x = new svm_node[prob.l][];
-        for (int i = 0; i < prob.l; i++)
-            prob.x[i] = (svm_node[]) vx.elementAt(i);
+        prob.x = vx.toArray(new svm_node[prob.l][]);
         for (int i = 0; i < prob.l; i++)
-        {
-            double labell = Double.parseDouble((String) vy.elementAt(i));
-            prob.y[i] = labell;
-        }
+            prob.y[i] = vy.get(i).doubleValue();
         if (param.gamma == 0)
             param.gamma = 1.0 / max_index;
-        fp.close();
     }
 
     protected boolean supportsMultiLabels()
@@ -0,0 +1,175 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.libsvm;
+
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+import com.digitalpebble.classification.Vector;
+
+/**
+ * Classifies documents with a libsvm model trained with a linear kernel
+ * without going through its support vectors. With a linear kernel the
+ * decision function of each pair of classes is the dot product of the
+ * document with the sum of the support vectors weighted by their
+ * coefficients, so these sums are computed once when the model is loaded.
+ * The weights are laid out feature by feature, the decision values of all the
+ * pairs are computed in one pass over the vector of a document and the votes
+ * are counted as in svm.svm_predict(). The decision values only differ from
+ * the ones of libsvm by rounding errors, as the products are summed in a
+ * different order.
+ **/
+final class LinearSVMScorer {
+
+  // largest array most VMs can allocate
+  private static final long MAX_WEIGHTS = Integer.MAX_VALUE - 8;
+
+  // a svm_node and its reference take about as much memory as 5 doubles
+  private static final long MAX_WEIGHTS_PER_NODE = 16;
+
+  private final int nr_class;
+
+  private final int nr_pairs;
+
+  private final int max_index;
+
+  // weights of the pairs for feature 1, then feature 2...
+  private final double[] weights;
+
+  private final double[] rho;
+
+  private final int[] labels;
+
+  /**
+   * Returns true if the model can be collapsed : classification with a
+   * linear kernel and without probabilities. The weights must also fit in an
+   * array and take at most a few times the memory of the support vectors,
+   * which is not the case for sparse vectors with very large attribute
+   * indices and many classes; SparseKernelScorer is used instead.
+   **/
+  static boolean supports(svm_model model) {
+    svm_parameter param = model.param;
+    if (param.kernel_type != svm_parameter.LINEAR)
+      return false;
+    if (param.svm_type != svm_parameter.C_SVC
+        && param.svm_type != svm_parameter.NU_SVC)
+      return false;
+    if (model.probA != null && model.probB != null)
+      return false;
+    long nodes = 0;
+    for (svm_node[] sv : model.SV)
+      nodes += sv.length;
+    long size = getNrWeights(model);
+    return size <= MAX_WEIGHTS
+        && size <= MAX_WEIGHTS_PER_NODE * Math.max(nodes, 1);
+  }
+
+  private static int getMaxIndex(svm_model model) {
+    int max = 0;
+    for (svm_node[] sv : model.SV)
+      for (svm_node node : sv)
+        max = Math.max(max, node.index);
+    return max;
+  }
+
+  // computed as a long as it can overflow an int
+  private static long getNrWeights(svm_model model) {
+    long pairs = model.nr_class * (model.nr_class - 1) / 2;
+    return getMaxIndex(model) * pairs;
+  }
+
+  LinearSVMScorer(svm_model model) {
+    long size = getNrWeights(model);
+    if (size > MAX_WEIGHTS)
+      throw new IllegalArgumentException("Too many weights : " + size);
+    nr_class = model.nr_class;
+    nr_pairs = nr_class * (nr_class - 1) / 2;
+    rho = model.rho.clone();
+    labels = model.label.clone();
+    max_index = getMaxIndex(model);
+    weights = new double[(int) size];
+
+    int[] start = new int[nr_class];
+    for (int i = 1; i < nr_class; i++)
+      start[i] = start[i - 1] + model.nSV[i - 1];
+
+    // same pairs and coefficients as svm.svm_predict_values()
+    int p = 0;
+    for (int i = 0; i < nr_class; i++) {
+      for (int j = i + 1; j < nr_class; j++) {
+        add(model, model.sv_coef[j - 1], start[i], model.nSV[i], p);
+        add(model, model.sv_coef[i], start[j], model.nSV[j], p);
+        p++;
+      }
+    }
+  }
+
+  private void add(svm_model model, double[] coef, int start, int count,
+      int pair) {
+    for (int k = start; k < start + count; k++) {
+      for (svm_node node : model.SV[k]) {
+        if (node.index > 0)
+          weights[(node.index - 1) * nr_pairs + pair] += coef[k] * node.value;
+      }
+    }
+  }
+
+  /** Same as svm.svm_predict_values() **/
+  void decisionValues(Vector vector, double[] dec_values) {
+    for (int p = 0; p < nr_pairs; p++)
+      dec_values[p] = 0;
+    int[] indices = vector.getIndices();
+    double[] values = vector.getValues();
+    int size = vector.size();
+    for (int pos = 0; pos < size; pos++) {
+      int index = indices[pos];
+      // no support vector has this attribute
+      if (index > max_index || index < 1)
+        continue;
+      double value = values[pos];
+      int offset = (index - 1) * nr_pairs;
+      for (int p = 0; p < nr_pairs; p++)
+        dec_values[p] += weights[offset + p] * value;
+    }
+    for (int p = 0; p < nr_pairs; p++)
+      dec_values[p] -= rho[p];
+  }
+
+  /** Same as svm.svm_predict() : one vote per pair of classes **/
+  int predict(Vector vector) {
+    double[] dec_values = new double[nr_pairs];
+    decisionValues(vector, dec_values);
+    int[] vote = new int[nr_class];
+    int p = 0;
+    for (int i = 0; i < nr_class; i++) {
+      for (int j = i + 1; j < nr_class; j++) {
+        if (dec_values[p] > 0)
+          ++vote[i];
+        else
+          ++vote[j];
+        p++;
+      }
+    }
+    int vote_max_idx = 0;
+    for (int i = 1; i < nr_class; i++)
+      if (vote[i] > vote[vote_max_idx])
+        vote_max_idx = i;
+    return labels[vote_max_idx];
+  }
+
+}
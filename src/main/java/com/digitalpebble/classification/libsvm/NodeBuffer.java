@@ -0,0 +1,58 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.libsvm;
+
+import libsvm.svm_node;
+
+/**
+ * libsvm nodes which are reused from one document to the next by the thread
+ * owning the buffer. svm_predict() iterates on the whole array it is given so
+ * the arrays are allocated with a size in powers of two and the tail which is
+ * not used by a document is padded with nodes of index Integer.MAX_VALUE and
+ * value 0. These match no attribute of the support vectors and add exactly 0
+ * to the kernels, after the real nodes, so the results are the same as with
+ * an array of the exact size.
+ **/
+final class NodeBuffer {
+
+  private final svm_node[][] arrays = new svm_node[32][];
+
+  /** Returns an array of at least length nodes **/
+  svm_node[] get(int length) {
+    int bucket = 32 - Integer.numberOfLeadingZeros(Math.max(length, 1) - 1);
+    svm_node[] nodes = arrays[bucket];
+    if (nodes == null) {
+      nodes = new svm_node[1 << bucket];
+      for (int i = 0; i < nodes.length; i++)
+        nodes[i] = new svm_node();
+      arrays[bucket] = nodes;
+    }
+    return nodes;
+  }
+
+  static void set(svm_node[] nodes, int pos, int index, double value) {
+    nodes[pos].index = index;
+    nodes[pos].value = value;
+  }
+
+  /** Marks the nodes from position used onwards as ignored **/
+  static void pad(svm_node[] nodes, int used) {
+    for (int pos = used; pos < nodes.length; pos++)
+      set(nodes, pos, Integer.MAX_VALUE, 0);
+  }
+
+}
@@ -0,0 +1,345 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * 
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.libsvm;
+
+import libsvm.svm_model;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+
+import com.digitalpebble.classification.Vector;
+
+/**
+ * Evaluates the kernels of a libsvm classification model with an inverted
+ * index of its support vectors : for each attribute, the support vectors
+ * which have it and their values. The dot products of a document with all the
+ * support vectors are accumulated by going through the postings of its
+ * attributes only, so the cost depends on the length of the document and not
+ * on the number of support vectors times their length. The RBF kernel is
+ * computed from the dot product as ||x||^2 + ||sv||^2 - 2 x.sv, with the norms
+ * of the support vectors computed when the model is loaded.
+ * 
+ * The dot products are summed in the order of the attributes, as in libsvm,
+ * so the linear, polynomial and sigmoid kernels give exactly the same values
+ * as libsvm. The RBF kernel differs by rounding errors. The decision values,
+ * votes and probabilities are then computed as in svm.svm_predict_values(),
+ * svm.svm_predict() and svm.svm_predict_probability().
+ **/
+final class SparseKernelScorer {
+
+  // the postings start at most this many attributes apart on average
+  private static final long MAX_ATTRIBUTES_PER_POSTING = 16;
+
+  private final svm_parameter param;
+
+  private final int nr_class;
+
+  private final int l;
+
+  // first support vector of each class
+  private final int[] start;
+
+  private final int[] nSV;
+
+  private final double[][] sv_coef;
+
+  private final double[] rho;
+
+  private final double[] probA;
+
+  private final double[] probB;
+
+  private final int[] labels;
+
+  // postings of attribute i from postingStart[i - 1] to postingStart[i]
+  private final int[] postingStart;
+
+  private final int[] postingSV;
+
+  private final double[] postingValue;
+
+  // squared norm of the support vectors, for RBF
+  private final double[] sv_norm;
+
+  /**
+   * Returns true if the kernel of the model can be computed from dot
+   * products and the model is a classifier. The index has an entry for every
+   * attribute up to the largest one, so it must not be much larger than the
+   * support vectors.
+   **/
+  static boolean supports(svm_model model) {
+    svm_parameter param = model.param;
+    if (param.svm_type != svm_parameter.C_SVC
+        && param.svm_type != svm_parameter.NU_SVC)
+      return false;
+    if (param.kernel_type != svm_parameter.LINEAR
+        && param.kernel_type != svm_parameter.POLY
+        && param.kernel_type != svm_parameter.RBF
+        && param.kernel_type != svm_parameter.SIGMOID)
+      return false;
+    int max_index = 0;
+    long total = 0;
+    for (svm_node[] sv : model.SV)
+      for (svm_node node : sv)
+        if (node.index > 0) {
+          max_index = Math.max(max_index, node.index);
+          total++;
+        }
+    return max_index < Integer.MAX_VALUE
+        && max_index <= MAX_ATTRIBUTES_PER_POSTING * Math.max(total, 1);
+  }
+
+  SparseKernelScorer(svm_model model) {
+    param = model.param;
+    nr_class = model.nr_class;
+    l = model.l;
+    nSV = model.nSV.clone();
+    sv_coef = model.sv_coef;
+    rho = model.rho.clone();
+    probA = model.probA;
+    probB = model.probB;
+    labels = model.label.clone();
+
+    start = new int[nr_class];
+    for (int i = 1; i < nr_class; i++)
+      start[i] = start[i - 1] + nSV[i - 1];
+
+    // count the postings of each attribute
+    int max_index = 0;
+    int total = 0;
+    for (svm_node[] sv : model.SV)
+      for (svm_node node : sv)
+        if (node.index > 0) {
+          max_index = Math.max(max_index, node.index);
+          total++;
+        }
+    postingStart = new int[max_index + 1];
+    for (svm_node[] sv : model.SV)
+      for (svm_node node : sv)
+        if (node.index > 0)
+          postingStart[node.index]++;
+    for (int i = 1; i <= max_index; i++)
+      postingStart[i] += postingStart[i - 1];
+
+    // fill them from the end, in the order of the support vectors
+    postingSV = new int[total];
+    postingValue = new double[total];
+    sv_norm = new double[l];
+    for (int s = l - 1; s >= 0; s--) {
+      svm_node[] sv = model.SV[s];
+      for (int n = sv.length - 1; n >= 0; n--) {
+        int index = sv[n].index;
+        if (index <= 0)
+          continue;
+        int pos = --postingStart[index];
+        postingSV[pos] = s;
+        postingValue[pos] = sv[n].value;
+      }
+      double norm = 0;
+      for (svm_node node : sv)
+        norm += node.value * node.value;
+      sv_norm[s] = norm;
+    }
+    // postingStart[i] is now the first posting of attribute i + 1
+    System.arraycopy(postingStart, 1, postingStart, 0, max_index);
+    postingStart[max_index] = total;
+  }
+
+  /**
+   * Computes the kernel of the document with each support vector, kvalue
+   * must be filled with zeros
+   **/
+  private void kernels(Vector vector, double[] kvalue) {
+    int[] indices = vector.getIndices();
+    double[] values = vector.getValues();
+    int size = vector.size();
+    double x_norm = 0;
+    for (int pos = 0; pos < size; pos++) {
+      int index = indices[pos];
+      double value = values[pos];
+      x_norm += value * value;
+      if (index < 1 || index >= postingStart.length)
+        continue;
+      int end = postingStart[index];
+      for (int p = postingStart[index - 1]; p < end; p++)
+        kvalue[postingSV[p]] += value * postingValue[p];
+    }
+
+    switch (param.kernel_type) {
+      case svm_parameter.LINEAR:
+        break;
+      case svm_parameter.POLY:
+        for (int s = 0; s < l; s++)
+          kvalue[s] = powi(param.gamma * kvalue[s] + param.coef0, param.degree);
+        break;
+      case svm_parameter.RBF:
+        for (int s = 0; s < l; s++) {
+          double distance = x_norm + sv_norm[s] - 2 * kvalue[s];
+          kvalue[s] = Math.exp(-param.gamma * Math.max(distance, 0));
+        }
+        break;
+      case svm_parameter.SIGMOID:
+        for (int s = 0; s < l; s++)
+          kvalue[s] = Math.tanh(param.gamma * kvalue[s] + param.coef0);
+        break;
+      default:
+        throw new IllegalStateException("Unsupported kernel "
+            + param.kernel_type);
+    }
+  }
+
+  // same as in libsvm
+  private static double powi(double base, int times) {
+    double tmp = base, ret = 1.0;
+    for (int t = times; t > 0; t /= 2) {
+      if (t % 2 == 1)
+        ret *= tmp;
+      tmp = tmp * tmp;
+    }
+    return ret;
+  }
+
+  /** Same as svm.svm_predict_values() **/
+  void decisionValues(Vector vector, double[] dec_values) {
+    // allocated per call like in libsvm, nothing is kept between documents
+    double[] kvalue = new double[l];
+    kernels(vector, kvalue);
+    int p = 0;
+    for (int i = 0; i < nr_class; i++) {
+      for (int j = i + 1; j < nr_class; j++) {
+        double sum = 0;
+        int si = start[i];
+        int sj = start[j];
+        int ci = nSV[i];
+        int cj = nSV[j];
+        double[] coef1 = sv_coef[j - 1];
+        double[] coef2 = sv_coef[i];
+        for (int k = 0; k < ci; k++)
+          sum += coef1[si + k] * kvalue[si + k];
+        for (int k = 0; k < cj; k++)
+          sum += coef2[sj + k] * kvalue[sj + k];
+        sum -= rho[p];
+        dec_values[p] = sum;
+        p++;
+      }
+    }
+  }
+
+  /** Same as svm.svm_predict() : one vote per pair of classes **/
+  int predict(Vector vector) {
+    double[] dec_values = new double[nr_class * (nr_class - 1) / 2];
+    decisionValues(vector, dec_values);
+    int[] vote = new int[nr_class];
+    int p = 0;
+    for (int i = 0; i < nr_class; i++) {
+      for (int j = i + 1; j < nr_class; j++) {
+        if (dec_values[p] > 0)
+          ++vote[i];
+        else
+          ++vote[j];
+        p++;
+      }
+    }
+    int vote_max_idx = 0;
+    for (int i = 1; i < nr_class; i++)
+      if (vote[i] > vote[vote_max_idx])
+        vote_max_idx = i;
+    return labels[vote_max_idx];
+  }
+
+  /**
+   * Same as svm.svm_predict_probability() for a model with probability
+   * information
+   **/
+  void probabilities(Vector vector, double[] prob_estimates) {
+    double[] dec_values = new double[nr_class * (nr_class - 1) / 2];
+    decisionValues(vector, dec_values);
+    double min_prob = 1e-7;
+    double[][] pairwise_prob = new double[nr_class][nr_class];
+    int k = 0;
+    for (int i = 0; i < nr_class; i++) {
+      for (int j = i + 1; j < nr_class; j++) {
+        pairwise_prob[i][j] = Math.min(Math.max(sigmoid_predict(
+            dec_values[k], probA[k], probB[k]), min_prob), 1 - min_prob);
+        pairwise_prob[j][i] = 1 - pairwise_prob[i][j];
+        k++;
+      }
+    }
+    multiclass_probability(nr_class, pairwise_prob, prob_estimates);
+  }
+
+  // same as in libsvm
+  private static double sigmoid_predict(double decision_value, double A,
+      double B) {
+    double fApB = decision_value * A + B;
+    if (fApB >= 0)
+      return Math.exp(-fApB) / (1.0 + Math.exp(-fApB));
+    else
+      return 1.0 / (1 + Math.exp(fApB));
+  }
+
+  // same as in libsvm
+  private static void multiclass_probability(int k, double[][] r, double[] p) {
+    int t, j;
+    int iter = 0, max_iter = Math.max(100, k);
+    double[][] Q = new double[k][k];
+    double[] Qp = new double[k];
+    double pQp, eps = 0.005 / k;
+
+    for (t = 0; t < k; t++) {
+      p[t] = 1.0 / k;
+      Q[t][t] = 0;
+      for (j = 0; j < t; j++) {
+        Q[t][t] += r[j][t] * r[j][t];
+        Q[t][j] = Q[j][t];
+      }
+      for (j = t + 1; j < k; j++) {
+        Q[t][t] += r[j][t] * r[j][t];
+        Q[t][j] = -r[j][t] * r[t][j];
+      }
+    }
+    for (iter = 0; iter < max_iter; iter++) {
+      // stopping condition, recalculate QP,pQP for numerical accuracy
+      pQp = 0;
+      for (t = 0; t < k; t++) {
+        Qp[t] = 0;
+        for (j = 0; j < k; j++)
+          Qp[t] += Q[t][j] * p[j];
+        pQp += p[t] * Qp[t];
+      }
+      double max_error = 0;
+      for (t = 0; t < k; t++) {
+        double error = Math.abs(Qp[t] - pQp);
+        if (error > max_error)
+          max_error = error;
+      }
+      if (max_error < eps)
+        break;
+
+      for (t = 0; t < k; t++) {
+        double diff = (-Qp[t] + pQp) / Q[t][t];
+        p[t] += diff;
+        pQp = (pQp + diff * (diff * Q[t][t] + 2 * Qp[t])) / (1 + diff)
+            / (1 + diff);
+        for (j = 0; j < k; j++) {
+          Qp[j] = (Qp[j] + diff * Q[t][j]) / (1 + diff);
+          p[j] /= (1 + diff);
+        }
+      }
+    }
+  }
+
+}
@@ -16,18 +16,27 @@
 
 package com.digitalpebble.classification.libsvm;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import com.digitalpebble.classification.Document;
 import com.digitalpebble.classification.Lexicon;
 import com.digitalpebble.classification.TrainingCorpus;
 import com.digitalpebble.classification.Vector;
+import com.digitalpebble.classification.util.ParallelCorpus;
 
 public class Utils {
     /**
@@ -71,7 +80,7 @@ public class Utils {
         StringBuffer buffer = new StringBuffer();
         int[] indices = vector.getIndices();
         double[] values = vector.getValues();
-        for (int i = 0; i < indices.length; i++) {
+        for (int i = 0; i < vector.size(); i++) {
             buffer.append(" ").append(indices[i]).append(":").append(values[i]);
         }
         return buffer.toString();
@@ -79,19 +88,50 @@ public class Utils {
 
     public static File writeExamples(TrainingCorpus corpus, Lexicon lexicon,
             boolean b, String vector_location) throws IOException {
-        return writeExamples(corpus, lexicon, b, vector_location, null, null);
+        return writeExamples(corpus, lexicon, b, vector_location, (int[]) null,
+                null);
     }
 
+    /**
+     * @deprecated use writeExamples(TrainingCorpus, Lexicon, boolean, String,
+     *             int[], String) with a remap table
+     */
+    @Deprecated
     public static File writeExamples(TrainingCorpus corpus, Lexicon lexicon,
             boolean b, String vector_location,
             Map<Integer, Integer> attributeMapping) throws IOException {
-        return writeExamples(corpus, lexicon, b, vector_location, null, null);
+        return writeExamples(corpus, lexicon, b, vector_location,
+                attributeMapping, null);
     }
 
+    /**
+     * @deprecated use writeExamples(TrainingCorpus, Lexicon, boolean, String,
+     *             int[], String) with a remap table
+     */
+    @Deprecated
     public static File writeExamples(TrainingCorpus corpus, Lexicon lexicon,
             boolean b, String vector_location,
             Map<Integer, Integer> attributeMapping, String format)
             throws IOException {
+        return writeExamples(corpus, lexicon, b, vector_location,
+                toRemapTable(attributeMapping), format);
+    }
+
+    private static int[] toRemapTable(Map<Integer, Integer> attributeMapping) {
+        if (attributeMapping == null)
+            return null;
+        return Lexicon.toRemapTable(attributeMapping);
+    }
+
+    /**
+     * Writes the vectors of the documents in a corpus in the libsvm format
+     * (default), or in the ARFF or UCI format. The attribute numbers are
+     * translated with the remap table if it is not null, see
+     * Lexicon.compactAttributes()
+     **/
+    public static File writeExamples(TrainingCorpus corpus, Lexicon lexicon,
+            boolean b, String vector_location, int[] attributeMapping,
+            String format) throws IOException {
         if ("arff".equalsIgnoreCase(format))
             return writeARFF(corpus, lexicon, b, vector_location,
                     attributeMapping);
@@ -102,15 +142,28 @@ public class Utils {
                 attributeMapping);
     }
 
+    /**
+     * @deprecated use writeVectors(TrainingCorpus, Lexicon, boolean, String,
+     *             int[]) with a remap table
+     */
+    @Deprecated
     public static File writeVectors(TrainingCorpus corpus, Lexicon lexicon,
             boolean b, String vector_location,
             Map<Integer, Integer> attributeMapping) throws IOException {
+        return writeVectors(corpus, lexicon, b, vector_location,
+                toRemapTable(attributeMapping));
+    }
+
+    public static File writeVectors(TrainingCorpus corpus, Lexicon lexicon,
+            boolean b, String vector_location,
+            int[] attributeMapping) throws IOException {
         File vectorFile = new File(vector_location);
         PrintWriter out = null;
         out = new PrintWriter(new FileWriter(vectorFile));
         // get an iterator on the Corpus
         // and retrieve the documents one by one
         Iterator<Document> docIterator = corpus.iterator();
+        Vector vector = new Vector();
         while (docIterator.hasNext()) {
             Document doc = docIterator.next();
             int label = doc.getLabel();
@@ -118,20 +171,81 @@ public class Utils {
             // need a metric (e.g. relative frequency / binary)
             // and a lexicon
             // the vector is represented as a string directly
-            Vector vector = null;
-            if (attributeMapping == null)
-                vector = doc.getFeatureVector(lexicon);
-            else
-                vector = doc.getFeatureVector(lexicon, attributeMapping);
+            vector = doc.getFeatureVector(lexicon, attributeMapping, vector);
             out.print(label + " " + Utils.getVectorString(vector) + "\n");
         }
         out.close();
         return vectorFile;
     }
 
+    /**
+     * Same as writeVectors but the parts of a corpus which can be split are
+     * written on numThreads threads, each in a temporary file. The files are
+     * then concatenated in the order of the documents so the result is the
+     * same as with a single thread.
+     **/
+    public static File writeVectors(TrainingCorpus corpus,
+            final Lexicon lexicon, final boolean b, String vector_location,
+            final int[] attributeMapping, int numThreads) throws IOException {
+        List<TrainingCorpus> parts = ParallelCorpus.split(corpus, numThreads);
+        if (parts.size() == 1)
+            return writeVectors(corpus, lexicon, b, vector_location,
+                    attributeMapping);
+        final List<File> partFiles = new ArrayList<File>();
+        List<Callable<File>> tasks = new ArrayList<Callable<File>>();
+        for (final TrainingCorpus part : parts) {
+            final File partFile = new File(vector_location + ".part"
+                    + partFiles.size());
+            partFiles.add(partFile);
+            tasks.add(new Callable<File>() {
+                public File call() throws IOException {
+                    return writeVectors(part, lexicon, b, partFile.getPath(),
+                            attributeMapping);
+                }
+            });
+        }
+        File vectorFile = new File(vector_location);
+        try {
+            ParallelCorpus.invokeAll(tasks, numThreads);
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(
+                    vectorFile));
+            try {
+                byte[] buffer = new byte[65536];
+                for (File partFile : partFiles) {
+                    InputStream in = new FileInputStream(partFile);
+                    try {
+                        int read;
+                        while ((read = in.read(buffer)) != -1)
+                            out.write(buffer, 0, read);
+                    } finally {
+                        in.close();
+                    }
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            for (File partFile : partFiles)
+                partFile.delete();
+        }
+        return vectorFile;
+    }
+
+    /**
+     * @deprecated use writeARFF(TrainingCorpus, Lexicon, boolean, String,
+     *             int[]) with a remap table
+     */
+    @Deprecated
     public static File writeARFF(TrainingCorpus corpus, Lexicon lexicon,
             boolean b, String vector_location,
             Map<Integer, Integer> attributeMapping) throws IOException {
+        return writeARFF(corpus, lexicon, b, vector_location,
+                toRemapTable(attributeMapping));
+    }
+
+    public static File writeARFF(TrainingCorpus corpus, Lexicon lexicon,
+            boolean b, String vector_location,
+            int[] attributeMapping) throws IOException {
         File vectorFile = new File(vector_location);
         PrintWriter out = null;
         out = new PrintWriter(new FileWriter(vectorFile));
@@ -175,6 +289,7 @@ public class Utils {
         // get an iterator on the Corpus
         // and retrieve the documents one by one
         Iterator<Document> docIterator = corpus.iterator();
+        Vector vector = new Vector();
         while (docIterator.hasNext()) {
             Document doc = docIterator.next();
             int label = doc.getLabel();
@@ -182,11 +297,7 @@ public class Utils {
             // need a metric (e.g. relative frequency / binary)
             // and a lexicon
             // the vector is represented as a string directly
-            Vector vector = null;
-            if (attributeMapping == null)
-                vector = doc.getFeatureVector(lexicon);
-            else
-                vector = doc.getFeatureVector(lexicon, attributeMapping);
+            vector = doc.getFeatureVector(lexicon, attributeMapping, vector);
 
             StringBuffer buffer = new StringBuffer("{");
 
@@ -196,7 +307,7 @@ public class Utils {
             // index space value
             int[] indices = vector.getIndices();
             double[] values = vector.getValues();
-            for (int i = 0; i < indices.length; i++) {
+            for (int i = 0; i < vector.size(); i++) {
                 if (buffer.length() > 1)
                     buffer.append(", ");
                 if (indices[i] > attributeNum)
@@ -210,10 +321,22 @@ public class Utils {
         return vectorFile;
     }
 
-    /** same as ARFF dense format but without headers **/
+    /**
+     * @deprecated use writeUCI(TrainingCorpus, Lexicon, boolean, String,
+     *             int[]) with a remap table
+     */
+    @Deprecated
     public static File writeUCI(TrainingCorpus corpus, Lexicon lexicon,
             boolean b, String vector_location,
             Map<Integer, Integer> attributeMapping) throws IOException {
+        return writeUCI(corpus, lexicon, b, vector_location,
+                toRemapTable(attributeMapping));
+    }
+
+    /** same as ARFF dense format but without headers **/
+    public static File writeUCI(TrainingCorpus corpus, Lexicon lexicon,
+            boolean b, String vector_location,
+            int[] attributeMapping) throws IOException {
         File vectorFile = new File(vector_location);
         PrintWriter out = null;
         out = new PrintWriter(new FileWriter(vectorFile));
@@ -224,6 +347,7 @@ public class Utils {
         // get an iterator on the Corpus
         // and retrieve the documents one by one
         Iterator<Document> docIterator = corpus.iterator();
+        Vector vector = new Vector();
         while (docIterator.hasNext()) {
             Document doc = docIterator.next();
             int label = doc.getLabel();
@@ -231,11 +355,7 @@ public class Utils {
             // need a metric (e.g. relative frequency / binary)
             // and a lexicon
             // the vector is represented as a string directly
-            Vector vector = null;
-            if (attributeMapping == null)
-                vector = doc.getFeatureVector(lexicon);
-            else
-                vector = doc.getFeatureVector(lexicon, attributeMapping);
+            vector = doc.getFeatureVector(lexicon, attributeMapping, vector);
 
             StringBuffer buffer = new StringBuffer();
 
@@ -246,7 +366,7 @@ public class Utils {
 
             double[] denseVector = new double[attributeNum];
 
-            for (int i = 0; i < indices.length; i++) {
+            for (int i = 0; i < vector.size(); i++) {
                 int currentIndex = indices[i];
                 if (indices[i] > attributeNum)
                     continue;
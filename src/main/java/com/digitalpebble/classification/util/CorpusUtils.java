@@ -27,7 +27,6 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.BitSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 
@@ -57,6 +56,43 @@ public class CorpusUtils {
         writer.close();
     }
 
+    /**
+     * Rewrites a raw file in text or binary format. The output file is
+     * replaced if it exists. Returns the number of documents converted.
+     **/
+    public static int convertRawFile(File input, File output, boolean binary)
+            throws IOException {
+        return convertRawFile(input, output,
+                binary ? FileTrainingCorpus.Format.BINARY
+                        : FileTrainingCorpus.Format.TEXT);
+    }
+
+    /**
+     * Rewrites a raw file in a given format. The output file is replaced if
+     * it exists. Returns the number of documents converted.
+     **/
+    public static int convertRawFile(File input, File output,
+            FileTrainingCorpus.Format format) throws IOException {
+        if (input.getCanonicalFile().equals(output.getCanonicalFile()))
+            throw new IOException("Can't convert " + input + " in place");
+        FileTrainingCorpus source = new FileTrainingCorpus(input);
+        source.close();
+        if (output.exists() && !output.delete())
+            throw new IOException("Can't delete " + output);
+        FileTrainingCorpus target = new FileTrainingCorpus(output, format);
+        int converted = 0;
+        try {
+            Iterator<Document> iterator = source.iterator();
+            while (iterator.hasNext()) {
+                target.addDocument(iterator.next());
+                converted++;
+            }
+        } finally {
+            target.close();
+        }
+        return converted;
+    }
+
     public static void dumpBestAttributes(String raw, String lexiconF)
             throws IOException {
         // load the corpus + the lexicon
@@ -87,6 +123,9 @@ public class CorpusUtils {
 
         String format = props.getProperty("format");
 
+        // threads used for reading the raw file
+        int numThreads = Integer.parseInt(props.getProperty("threads", "1"));
+
         // load the lexicon and the raw file
         Lexicon lexicon = new Lexicon(lexiconF);
 
@@ -108,7 +147,7 @@ public class CorpusUtils {
             // lexicon.setLogLikelihoodRatio(scores);
             // lexicon.keepTopNAttributesLLR(keepNBestAttributes);
             AttributeScorer scorer = logLikelihoodAttributeScorer.getScorer(
-                    ftc, lexicon);
+                    ftc, lexicon, numThreads);
             lexicon.setAttributeScorer(scorer);
             lexicon.applyAttributeFilter(scorer, keepNBestAttributes);
         } else {
@@ -122,10 +161,10 @@ public class CorpusUtils {
 
         // change the indices of the attributes to remove
         // gaps between them
-        Map<Integer, Integer> equiv = null;
+        int[] equiv = null;
         if (compact) {
             // create a new Lexicon object
-            equiv = lexicon.compact();
+            equiv = lexicon.compactAttributes();
         }
 
         // save the modified lexicon file
@@ -133,7 +172,12 @@ public class CorpusUtils {
             lexicon.saveToFile(newLexicon);
 
         // dump a new vector file
-        Utils.writeExamples(ftc, lexicon, true, vector_location, equiv, format);
+        if (format == null || "libsvm".equalsIgnoreCase(format))
+            Utils.writeVectors(ftc, lexicon, true, vector_location, equiv,
+                    numThreads);
+        else
+            Utils.writeExamples(ftc, lexicon, true, vector_location, equiv,
+                    format);
     }
 
     /**
@@ -220,6 +264,7 @@ public class CorpusUtils {
             buffer.append("\t -generateVector rawFile lexicon parameter_file\n");
             buffer.append("\t -randomSelection rawFile expected_num_lines [-noTest]\n");
             buffer.append("\t -bestAttributes rawFile lexicon\n");
+            buffer.append("\t -convertRaw existingRawFile newRawFile [text|binary|compressed]\n");
             System.out.println(buffer.toString());
             return;
         }
@@ -235,6 +280,22 @@ public class CorpusUtils {
             }
         }
 
+        else if (args[0].equalsIgnoreCase("-convertRaw")) {
+            String fileName = args[1];
+            String newFileName = args[2];
+            FileTrainingCorpus.Format format = FileTrainingCorpus.Format.BINARY;
+            if (args.length >= 4)
+                format = FileTrainingCorpus.Format.valueOf(args[3]
+                        .toUpperCase());
+            try {
+                int converted = convertRawFile(new File(fileName), new File(
+                        newFileName), format);
+                System.out.println(converted + " documents converted");
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
         else if (args[0].equalsIgnoreCase("-bestAttributes")) {
             String fileName = args[1];
             String lexicon = args[2];
@@ -0,0 +1,205 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.util;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Read-only term dictionary storing the terms with front coding. The UTF-8
+ * bytes of the terms are sorted and grouped in blocks of BLOCK_SIZE terms; the
+ * first term of a block is stored in full and the following ones as the length
+ * of the prefix they share with the previous term plus their remaining bytes.
+ * The terms of a lexicon share long prefixes (field names, n-grams) so this
+ * takes a fraction of the memory used by String keys. A lookup is a binary
+ * search on the first terms of the blocks followed by a scan of one block.
+ **/
+public class FrontCodedTermDictionary implements TermDictionary {
+
+    private static final int BLOCK_SIZE = 16;
+
+    private final byte[] data;
+
+    /** position in data of the first term of each block **/
+    private final int[] blockOffsets;
+
+    /** attribute IDs in term order **/
+    private final int[] ids;
+
+    public FrontCodedTermDictionary(String[] terms, int[] termIDs) {
+        byte[][] bytes = new byte[terms.length][];
+        for (int i = 0; i < terms.length; i++)
+            bytes[i] = terms[i].getBytes(MappedTermDictionary.UTF8);
+        Integer[] order = MappedTermDictionary.byteOrder(bytes);
+
+        ids = new int[terms.length];
+        blockOffsets = new int[(terms.length + BLOCK_SIZE - 1) / BLOCK_SIZE];
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] previous = null;
+        for (int rank = 0; rank < order.length; rank++) {
+            int pos = order[rank].intValue();
+            byte[] current = bytes[pos];
+            ids[rank] = termIDs[pos];
+            int prefix = 0;
+            if (rank % BLOCK_SIZE == 0)
+                blockOffsets[rank / BLOCK_SIZE] = out.size();
+            else
+                prefix = commonPrefix(previous, current);
+            writeVInt(out, prefix);
+            writeVInt(out, current.length - prefix);
+            out.write(current, prefix, current.length - prefix);
+            previous = current;
+        }
+        data = out.toByteArray();
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b) {
+        int max = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < max && a[i] == b[i])
+            i++;
+        return i;
+    }
+
+    private static void writeVInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    public int get(String term) {
+        byte[] key = term.getBytes(MappedTermDictionary.UTF8);
+
+        // find the last block whose first term is <= key
+        int low = 0;
+        int high = blockOffsets.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int pos = blockOffsets[mid];
+            // skip the prefix length (always 0)
+            pos++;
+            int length = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int cmp = MappedTermDictionary.compareBytes(key, data, pos, pos
+                    + length, null);
+            if (cmp == 0)
+                return ids[mid * BLOCK_SIZE];
+            if (cmp < 0) {
+                high = mid - 1;
+            } else {
+                block = mid;
+                low = mid + 1;
+            }
+        }
+        if (block == -1)
+            return NOT_FOUND;
+
+        // scan the block : matched is the length of the prefix
+        // shared by the key and the previous term, which is lower
+        int pos = blockOffsets[block];
+        int rank = block * BLOCK_SIZE;
+        int last = Math.min(rank + BLOCK_SIZE, ids.length);
+        int matched = 0;
+        for (; rank < last; rank++) {
+            int prefix = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                prefix |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int length = 0;
+            shift = 0;
+            do {
+                b = data[pos++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int suffixStart = pos;
+            pos += length;
+            // differs from the previous term earlier than the key does
+            // so it is greater than the key
+            if (prefix < matched)
+                return NOT_FOUND;
+            // same as the previous term on the matched bytes and beyond
+            if (prefix > matched)
+                continue;
+            // compare the rest of the key with the suffix
+            int i = 0;
+            while (i < length && matched + i < key.length
+                    && data[suffixStart + i] == key[matched + i])
+                i++;
+            if (i == length && matched + i == key.length)
+                return ids[rank];
+            if (matched + i == key.length)
+                // key is a prefix of the term
+                return NOT_FOUND;
+            if (i < length
+                    && (data[suffixStart + i] & 0xFF) > (key[matched + i] & 0xFF))
+                return NOT_FOUND;
+            matched += i;
+        }
+        return NOT_FOUND;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public String[] sortedKeys() {
+        String[] sorted = new String[ids.length];
+        byte[] current = new byte[16];
+        int pos = 0;
+        for (int rank = 0; rank < ids.length; rank++) {
+            int prefix = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                prefix |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            int length = 0;
+            shift = 0;
+            do {
+                b = data[pos++];
+                length |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            if (current.length < prefix + length)
+                current = Arrays.copyOf(current, 2 * (prefix + length));
+            System.arraycopy(data, pos, current, prefix, length);
+            pos += length;
+            sorted[rank] = new String(current, 0, prefix + length,
+                    MappedTermDictionary.UTF8);
+        }
+        // byte order and String order differ for supplementary characters
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+}
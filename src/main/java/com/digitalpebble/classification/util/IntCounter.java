@@ -0,0 +1,147 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.util;
+
+import java.util.Arrays;
+
+/**
+ * Counts occurrences of non-negative ints without boxing. The distinct keys
+ * and their counts are kept in insertion order and accessed by their rank;
+ * an open-addressing table maps a key to its rank. Meant to be reused :
+ * clear() only touches the slots which have been used.
+ **/
+public class IntCounter {
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // rank + 1 of the key stored in a slot, 0 if free
+    private int[] table;
+
+    private int mask;
+
+    private int resizeThreshold;
+
+    private int[] keys;
+
+    private int[] counts;
+
+    // slot used by the key of each rank
+    private int[] slots;
+
+    private int size = 0;
+
+    public IntCounter() {
+        this(16);
+    }
+
+    public IntCounter(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR <= expectedSize)
+            capacity <<= 1;
+        allocate(capacity);
+        keys = new int[resizeThreshold + 1];
+        counts = new int[resizeThreshold + 1];
+        slots = new int[resizeThreshold + 1];
+    }
+
+    private void allocate(int capacity) {
+        table = new int[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int slot(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** Adds one occurrence of a key and returns its new count **/
+    public int increment(int key) {
+        return add(key, 1);
+    }
+
+    /** Adds a number of occurrences of a key and returns its new count **/
+    public int add(int key, int occurrences) {
+        if (key < 0)
+            throw new IllegalArgumentException("Negative keys not allowed : "
+                    + key);
+        int pos = slot(key, mask);
+        int entry;
+        while ((entry = table[pos]) != 0) {
+            if (keys[entry - 1] == key)
+                return counts[entry - 1] += occurrences;
+            pos = (pos + 1) & mask;
+        }
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            counts = Arrays.copyOf(counts, size * 2);
+            slots = Arrays.copyOf(slots, size * 2);
+        }
+        keys[size] = key;
+        counts[size] = occurrences;
+        slots[size] = pos;
+        table[pos] = ++size;
+        if (size > resizeThreshold)
+            rehash();
+        return occurrences;
+    }
+
+    /** Returns the number of occurrences of a key, 0 if it has not been seen **/
+    public int get(int key) {
+        int pos = slot(key, mask);
+        int entry;
+        while ((entry = table[pos]) != 0) {
+            if (keys[entry - 1] == key)
+                return counts[entry - 1];
+            pos = (pos + 1) & mask;
+        }
+        return 0;
+    }
+
+    private void rehash() {
+        allocate(table.length << 1);
+        for (int rank = 0; rank < size; rank++) {
+            int pos = slot(keys[rank], mask);
+            while (table[pos] != 0)
+                pos = (pos + 1) & mask;
+            table[pos] = rank + 1;
+            slots[rank] = pos;
+        }
+    }
+
+    /** Number of distinct keys **/
+    public int size() {
+        return size;
+    }
+
+    /** Returns the key of a given rank, keys are ranked by first occurrence **/
+    public int key(int rank) {
+        return keys[rank];
+    }
+
+    /** Returns the count of the key of a given rank **/
+    public int count(int rank) {
+        return counts[rank];
+    }
+
+    public void clear() {
+        for (int rank = 0; rank < size; rank++)
+            table[slots[rank]] = 0;
+        size = 0;
+    }
+
+}
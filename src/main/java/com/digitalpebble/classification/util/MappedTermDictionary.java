@@ -0,0 +1,165 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.util;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Read-only term dictionary backed by a ByteBuffer, typically a section of a
+ * memory mapped lexicon file. The section is made of the number of terms, an
+ * offset table, the attribute IDs in term order then the UTF-8 bytes of all
+ * the terms sorted by unsigned byte order. Lookups are binary searches on the
+ * bytes of the buffer so nothing but the query needs to be on the heap.
+ **/
+public class MappedTermDictionary implements TermDictionary {
+
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int size;
+
+    private final IntBuffer offsets;
+
+    private final IntBuffer ids;
+
+    private final ByteBuffer termBytes;
+
+    /**
+     * Reads a dictionary from the current position of the buffer, which is
+     * moved to the end of the section
+     **/
+    public MappedTermDictionary(ByteBuffer buffer) {
+        size = buffer.getInt();
+        offsets = slice(buffer, (size + 1) * 4).asIntBuffer();
+        ids = slice(buffer, size * 4).asIntBuffer();
+        int numBytes = offsets.get(size);
+        termBytes = slice(buffer, numBytes);
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    /**
+     * Writes the terms and their IDs in the format expected by the
+     * constructor
+     **/
+    public static void write(DataOutput out, String[] terms, int[] termIDs)
+            throws IOException {
+        byte[][] bytes = new byte[terms.length][];
+        for (int i = 0; i < terms.length; i++)
+            bytes[i] = terms[i].getBytes(UTF8);
+        Integer[] order = byteOrder(bytes);
+        out.writeInt(terms.length);
+        int offset = 0;
+        out.writeInt(offset);
+        for (Integer i : order) {
+            offset += bytes[i.intValue()].length;
+            out.writeInt(offset);
+        }
+        for (Integer i : order)
+            out.writeInt(termIDs[i.intValue()]);
+        for (Integer i : order)
+            out.write(bytes[i.intValue()]);
+    }
+
+    /**
+     * Returns the positions of the byte arrays sorted in unsigned byte order
+     **/
+    static Integer[] byteOrder(final byte[][] bytes) {
+        Integer[] order = new Integer[bytes.length];
+        for (int i = 0; i < bytes.length; i++)
+            order[i] = Integer.valueOf(i);
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                byte[] ba = bytes[a.intValue()];
+                byte[] bb = bytes[b.intValue()];
+                return compareBytes(ba, bb, 0, bb.length, null);
+            }
+        });
+        return order;
+    }
+
+    // compares a key with the bytes found between start and end
+    // either in an array or in the buffer if the array is null
+    static int compareBytes(byte[] key, byte[] array, int start,
+            int end, ByteBuffer buffer) {
+        int length = end - start;
+        int common = Math.min(key.length, length);
+        for (int i = 0; i < common; i++) {
+            int b = (array != null ? array[start + i] : buffer.get(start + i)) & 0xFF;
+            int k = key[i] & 0xFF;
+            if (k != b)
+                return k - b;
+        }
+        return key.length - length;
+    }
+
+    public int get(String term) {
+        byte[] key = term.getBytes(UTF8);
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareBytes(key, null, offsets.get(mid), offsets
+                    .get(mid + 1), termBytes);
+            if (cmp == 0)
+                return ids.get(mid);
+            if (cmp < 0)
+                high = mid - 1;
+            else
+                low = mid + 1;
+        }
+        return NOT_FOUND;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the term at a given rank in the dictionary **/
+    public String getTerm(int rank) {
+        int start = offsets.get(rank);
+        byte[] bytes = new byte[offsets.get(rank + 1) - start];
+        for (int i = 0; i < bytes.length; i++)
+            bytes[i] = termBytes.get(start + i);
+        return new String(bytes, UTF8);
+    }
+
+    /** Returns the attribute ID of the term at a given rank **/
+    public int getID(int rank) {
+        return ids.get(rank);
+    }
+
+    public String[] sortedKeys() {
+        String[] sorted = new String[size];
+        for (int i = 0; i < size; i++)
+            sorted[i] = getTerm(i);
+        // byte order and String order differ for supplementary characters
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+}
@@ -17,10 +17,13 @@
 package com.digitalpebble.classification.util;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -29,7 +32,9 @@ import java.util.Map;
 
 import com.digitalpebble.classification.Document;
 import com.digitalpebble.classification.Lexicon;
+import com.digitalpebble.classification.Parameters;
 import com.digitalpebble.classification.TextClassifier;
+import com.digitalpebble.classification.liblinear.QuantisedModel;
 
 import de.bwaldvogel.liblinear.Model;
 
@@ -126,6 +131,99 @@ public class ModelUtils {
 		}
 	}
 
+	/**
+	 * Converts a lexicon file to the text or binary format. The format of the
+	 * input is detected automatically.
+	 **/
+	public static void convertLexicon(String input, String output,
+			boolean binary) throws IOException {
+		Lexicon lexicon = new Lexicon(input);
+		lexicon.saveToFile(output, binary);
+	}
+
+	/**
+	 * Writes a quantised version of the liblinear model of a resource
+	 * directory. LibLinearClassifier then uses it instead of the model.
+	 **/
+	public static void quantiseModel(String resourceDir,
+			QuantisedModel.Precision precision) throws IOException {
+		Model liblinearModel = Model.load(new File(resourceDir,
+				Parameters.modelName));
+		QuantisedModel quantised = QuantisedModel.quantise(liblinearModel,
+				precision);
+		quantised.save(new File(resourceDir, Parameters.quantisedModelName));
+	}
+
+	/**
+	 * Removes from a liblinear model and its lexicon the attributes whose
+	 * weights are all zero or, in absolute value, below epsilon. The remaining
+	 * attributes are renumbered compactly in both of them, keeping their
+	 * order. The weights of the model file are copied as they are so with an
+	 * epsilon of 0 the scores are exactly the same as with the original
+	 * model. The lexicon and the model are written to outputDir, which can be
+	 * the same as resourceDir. Returns the number of attributes kept.
+	 **/
+	public static int pruneModel(String resourceDir, String outputDir,
+			double epsilon) throws IOException {
+		Lexicon lexicon = new Lexicon(new File(resourceDir,
+				Parameters.lexiconName).getAbsolutePath());
+		File modelFile = new File(resourceDir, Parameters.modelName);
+		Model liblinearModel = Model.load(modelFile);
+		double[] weights = liblinearModel.getFeatureWeights();
+		int nr_feature = liblinearModel.getNrFeature();
+		int n = liblinearModel.getBias() >= 0 ? nr_feature + 1 : nr_feature;
+		int nr_w = n == 0 ? 1 : weights.length / n;
+
+		boolean[] keep = new boolean[nr_feature + 1];
+		for (int feature = 1; feature <= nr_feature; feature++) {
+			for (int i = 0; i < nr_w; i++) {
+				if (Math.abs(weights[(feature - 1) * nr_w + i]) > epsilon) {
+					keep[feature] = true;
+					break;
+				}
+			}
+		}
+		int[] remap = lexicon.retainAttributes(keep);
+		int kept = lexicon.getAttributesNum();
+
+		// the model file has a header then one line of weights per feature
+		// and one for the bias
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(modelFile));
+		String line;
+		while ((line = reader.readLine()) != null)
+			lines.add(line);
+		reader.close();
+		int header = lines.indexOf("w") + 1;
+		if (header == 0 || lines.size() < header + n)
+			throw new IOException("Unexpected format for model " + modelFile);
+
+		File output = new File(outputDir);
+		BufferedWriter writer = new BufferedWriter(new FileWriter(new File(
+				output, Parameters.modelName)));
+		for (int l = 0; l < header; l++) {
+			line = lines.get(l);
+			if (line.startsWith("nr_feature "))
+				line = "nr_feature " + kept;
+			writer.write(line + "\n");
+		}
+		// the retained attributes are in the same order as before
+		for (int feature = 1; feature <= nr_feature
+				&& feature < remap.length; feature++) {
+			if (remap[feature] != -1)
+				writer.write(lines.get(header + feature - 1) + "\n");
+		}
+		if (n > nr_feature)
+			writer.write(lines.get(header + nr_feature) + "\n");
+		writer.close();
+
+		lexicon.saveToFile(new File(output, Parameters.lexiconName)
+				.getAbsolutePath());
+		// would be used instead of the pruned model
+		new File(output, Parameters.quantisedModelName).delete();
+		return kept;
+	}
+
 	private static void classifyDoc(File input, TextClassifier classifier)
 			throws Exception {
 		// load text file as String
@@ -156,6 +254,9 @@ public class ModelUtils {
 			buffer.append("ModelUtils : \n");
 			buffer.append("\t -getAttributeScores modelFile lexicon [topAttributesThreshold]\n");
 			buffer.append("\t -classifyTextFile resourceDir input\n");
+			buffer.append("\t -convertLexicon lexicon output [binary|text]\n");
+			buffer.append("\t -quantiseModel resourceDir [int8|float16]\n");
+			buffer.append("\t -pruneModel resourceDir outputDir [epsilon]\n");
 			System.out.println(buffer.toString());
 			return;
 		}
@@ -174,6 +275,41 @@ public class ModelUtils {
 			}
 		}
 
+		else if (args[0].equalsIgnoreCase("-convertLexicon")) {
+			boolean binary = true;
+			if (args.length > 3)
+				binary = !"text".equalsIgnoreCase(args[3]);
+			try {
+				convertLexicon(args[1], args[2], binary);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+		else if (args[0].equalsIgnoreCase("-quantiseModel")) {
+			QuantisedModel.Precision precision = QuantisedModel.Precision.INT8;
+			if (args.length > 2)
+				precision = QuantisedModel.Precision.valueOf(args[2]
+						.toUpperCase());
+			try {
+				quantiseModel(args[1], precision);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
+		else if (args[0].equalsIgnoreCase("-pruneModel")) {
+			double epsilon = 0;
+			if (args.length > 3)
+				epsilon = Double.parseDouble(args[3]);
+			try {
+				int kept = pruneModel(args[1], args[2], epsilon);
+				System.out.println(kept + " attributes kept");
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+
 		else if (args[0].equalsIgnoreCase("-classifyTextFile")) {
 			String resourceDir = args[1];
 			File input = new File(args[2]);
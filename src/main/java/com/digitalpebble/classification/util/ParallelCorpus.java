@@ -0,0 +1,98 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.digitalpebble.classification.SplittableTrainingCorpus;
+import com.digitalpebble.classification.TrainingCorpus;
+
+/**
+ * Helpers for the passes over a corpus which process its parts in parallel.
+ * The results of the parts are returned in the order of the documents so that
+ * they can be merged deterministically.
+ **/
+public class ParallelCorpus {
+
+    private ParallelCorpus() {
+    }
+
+    /**
+     * Splits a corpus into at most numSplits parts, returns the corpus itself
+     * if it can't be split
+     **/
+    public static List<TrainingCorpus> split(TrainingCorpus corpus,
+            int numSplits) throws IOException {
+        if (numSplits > 1 && corpus instanceof SplittableTrainingCorpus)
+            return ((SplittableTrainingCorpus) corpus).split(numSplits);
+        return Collections.singletonList(corpus);
+    }
+
+    /**
+     * Runs the tasks on numThreads threads and returns their results in the
+     * order of the tasks. The first failure is thrown once all the tasks are
+     * finished.
+     **/
+    public static <T> List<T> invokeAll(List<? extends Callable<T>> tasks,
+            int numThreads) throws IOException {
+        List<T> results = new ArrayList<T>(tasks.size());
+        if (numThreads <= 1 || tasks.size() <= 1) {
+            try {
+                for (Callable<T> task : tasks)
+                    results.add(task.call());
+            } catch (Exception e) {
+                throw asIOException(e);
+            }
+            return results;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+                numThreads, tasks.size()));
+        try {
+            for (Future<T> future : executor.invokeAll(tasks))
+                results.add(future.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted corpus pass");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw asIOException((Exception) cause);
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+
+    private static IOException asIOException(Exception e) {
+        if (e instanceof RuntimeException)
+            throw (RuntimeException) e;
+        if (e instanceof IOException)
+            return (IOException) e;
+        return new IOException(e);
+    }
+
+}
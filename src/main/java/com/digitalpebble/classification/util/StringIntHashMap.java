@@ -0,0 +1,207 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.util;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash table mapping Strings to non-negative ints. Keys and
+ * values are held in two parallel arrays and collisions are resolved by linear
+ * probing, so a lookup costs one hash (cached by String) and a few array
+ * reads, without boxing nor per-entry objects.
+ */
+public class StringIntHashMap implements TermDictionary {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private String[] keys;
+
+    private int[] values;
+
+    private int size = 0;
+
+    private int mask;
+
+    private int resizeThreshold;
+
+    public StringIntHashMap() {
+        this(16);
+    }
+
+    public StringIntHashMap(int expectedSize) {
+        allocate(capacityFor(expectedSize));
+    }
+
+    private static int capacityFor(int expectedSize) {
+        int capacity = 16;
+        while (capacity * LOAD_FACTOR <= expectedSize)
+            capacity <<= 1;
+        return capacity;
+    }
+
+    private void allocate(int capacity) {
+        keys = new String[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    // spreads the bits of the String hash so that keys
+    // which differ only in their last chars do not cluster
+    private static int slot(String key, int mask) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the value for the key or NOT_FOUND **/
+    public int get(String key) {
+        int pos = slot(key, mask);
+        String candidate;
+        while ((candidate = keys[pos]) != null) {
+            if (candidate.equals(key))
+                return values[pos];
+            pos = (pos + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    public boolean containsKey(String key) {
+        return get(key) != NOT_FOUND;
+    }
+
+    /** Sets the value for a key and returns the previous one or NOT_FOUND **/
+    public int put(String key, int value) {
+        if (value < 0)
+            throw new IllegalArgumentException("Negative values not allowed : "
+                    + value);
+        int pos = slot(key, mask);
+        String candidate;
+        while ((candidate = keys[pos]) != null) {
+            if (candidate.equals(key)) {
+                int previous = values[pos];
+                values[pos] = value;
+                return previous;
+            }
+            pos = (pos + 1) & mask;
+        }
+        keys[pos] = key;
+        values[pos] = value;
+        if (++size > resizeThreshold)
+            rehash(keys.length << 1);
+        return NOT_FOUND;
+    }
+
+    /** Removes a key and returns its value or NOT_FOUND **/
+    public int remove(String key) {
+        int pos = slot(key, mask);
+        String candidate;
+        while ((candidate = keys[pos]) != null) {
+            if (candidate.equals(key)) {
+                int previous = values[pos];
+                shiftKeys(pos);
+                size--;
+                return previous;
+            }
+            pos = (pos + 1) & mask;
+        }
+        return NOT_FOUND;
+    }
+
+    // backward shift deletion : moves the entries following the
+    // removed one so that no probe sequence gets broken
+    private void shiftKeys(int pos) {
+        while (true) {
+            int last = pos;
+            pos = (pos + 1) & mask;
+            String candidate;
+            while (true) {
+                candidate = keys[pos];
+                if (candidate == null) {
+                    keys[last] = null;
+                    return;
+                }
+                int ideal = slot(candidate, mask);
+                // can the entry at pos be moved to last?
+                if (last <= pos ? (last >= ideal || ideal > pos)
+                        : (last >= ideal && ideal > pos))
+                    break;
+                pos = (pos + 1) & mask;
+            }
+            keys[last] = candidate;
+            values[last] = values[pos];
+        }
+    }
+
+    private void rehash(int capacity) {
+        String[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            String key = oldKeys[i];
+            if (key == null)
+                continue;
+            int pos = slot(key, mask);
+            while (keys[pos] != null)
+                pos = (pos + 1) & mask;
+            keys[pos] = key;
+            values[pos] = oldValues[i];
+        }
+    }
+
+    /**
+     * Removes all the entries. The capacity is kept unless it is far above
+     * the one needed by the entries removed, so that a map reused after a
+     * large batch of keys does not clear its peak capacity every time
+     **/
+    public void clear() {
+        if (size == 0)
+            return;
+        int capacity = capacityFor(size);
+        if (capacity * 4 < keys.length)
+            allocate(capacity);
+        else
+            Arrays.fill(keys, null);
+        size = 0;
+    }
+
+    /**
+     * Shrinks the internal arrays to the smallest capacity able to hold the
+     * current entries
+     **/
+    public void trimToSize() {
+        int capacity = capacityFor(size);
+        if (capacity < keys.length)
+            rehash(capacity);
+    }
+
+    /** Returns the keys sorted in their natural order **/
+    public String[] sortedKeys() {
+        String[] sorted = new String[size];
+        int pos = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null)
+                sorted[pos++] = keys[i];
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+}
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.util;
+
+/**
+ * Maps the forms of the terms in a Lexicon to their attribute IDs
+ **/
+public interface TermDictionary {
+
+    /** value returned for terms which are not in the dictionary **/
+    int NOT_FOUND = -1;
+
+    /** Returns the attribute ID of a term or NOT_FOUND **/
+    int get(String term);
+
+    /** Returns the number of terms **/
+    int size();
+
+    /** Returns the terms sorted in their natural order **/
+    String[] sortedKeys();
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.util.scorers;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import com.digitalpebble.classification.Document;
+import com.digitalpebble.classification.Lexicon;
+import com.digitalpebble.classification.Parameters;
+import com.digitalpebble.classification.TrainingCorpus;
+import com.digitalpebble.classification.Vector;
+import com.digitalpebble.classification.util.ParallelCorpus;
+
+/*******************************************************************************
+ * Matrix attributes x labels of the weights of the attributes in a corpus used
+ * by the attribute scorers. The attributes are ranked by first occurrence.
+ * The parts of a corpus can be counted in parallel then merged in the order of
+ * the documents, which gives the same ranks as a single pass.
+ ******************************************************************************/
+final class AttributeCounts {
+
+	final double[][] matrix;
+
+	final double[] totalAttributes;
+
+	final double[] totalClasses;
+
+	double total = 0d;
+
+	final int[] attributeIDToRank;
+
+	final int[] attributeRankToID;
+
+	int latestRank = 0;
+
+	AttributeCounts(Lexicon lexicon) {
+		int numAttributes = lexicon.getAttributesNum();
+		matrix = new double[numAttributes][lexicon.getLabelNum()];
+		totalAttributes = new double[numAttributes];
+		totalClasses = new double[lexicon.getLabelNum()];
+		attributeIDToRank = new int[lexicon.maxAttributeID() + 1];
+		java.util.Arrays.fill(attributeIDToRank, -1);
+		attributeRankToID = new int[numAttributes];
+		java.util.Arrays.fill(attributeRankToID, -1);
+	}
+
+	private int rank(int index) {
+		// problem here : the index is not the same as the rank
+		// find the rank of this attribute
+		int rank = attributeIDToRank[index];
+		if (rank == -1) {
+			// not seen this one yet
+			rank = latestRank;
+			attributeIDToRank[index] = rank;
+			attributeRankToID[rank] = index;
+			latestRank++;
+		}
+		return rank;
+	}
+
+	/** Adds the weights of the documents of a corpus * */
+	void add(TrainingCorpus corpus, Lexicon lexicon,
+			Parameters.WeightingMethod method) {
+		Iterator<Document> docIter = corpus.iterator();
+		while (docIter.hasNext()) {
+			Document d = docIter.next();
+			Vector vector = d.getFeatureVector(lexicon, method);
+			int[] indices = vector.getIndices();
+			double[] values = vector.getValues();
+			int classNum = d.getLabel();
+
+			for (int i = 0; i < indices.length; i++) {
+				double value = values[i];
+				if (value == 0)
+					continue;
+				int rank = rank(indices[i]);
+				matrix[rank][classNum] += value;
+				totalAttributes[rank] += value;
+				totalClasses[classNum] += value;
+				total += value;
+			}
+		}
+	}
+
+	/** Adds the counts of the part of a corpus following the ones counted * */
+	void add(AttributeCounts part) {
+		for (int r = 0; r < part.latestRank; r++) {
+			int rank = rank(part.attributeRankToID[r]);
+			for (int l = 0; l < totalClasses.length; l++)
+				matrix[rank][l] += part.matrix[r][l];
+			totalAttributes[rank] += part.totalAttributes[r];
+		}
+		for (int l = 0; l < totalClasses.length; l++)
+			totalClasses[l] += part.totalClasses[l];
+		total += part.total;
+	}
+
+	/**
+	 * Counts the parts of a corpus on numThreads threads if it can be split,
+	 * see SplittableTrainingCorpus
+	 */
+	static AttributeCounts count(TrainingCorpus corpus, final Lexicon lexicon,
+			final Parameters.WeightingMethod method, int numThreads)
+			throws IOException {
+		List<Callable<AttributeCounts>> tasks = new ArrayList<Callable<AttributeCounts>>();
+		for (final TrainingCorpus part : ParallelCorpus.split(corpus,
+				numThreads)) {
+			tasks.add(new Callable<AttributeCounts>() {
+				public AttributeCounts call() {
+					AttributeCounts counts = new AttributeCounts(lexicon);
+					counts.add(part, lexicon, method);
+					return counts;
+				}
+			});
+		}
+		List<AttributeCounts> parts = ParallelCorpus.invokeAll(tasks,
+				numThreads);
+		AttributeCounts counts = parts.get(0);
+		for (int p = 1; p < parts.size(); p++)
+			counts.add(parts.get(p));
+		return counts;
+	}
+
+}
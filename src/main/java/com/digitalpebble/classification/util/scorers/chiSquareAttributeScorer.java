@@ -16,70 +16,39 @@
 
 package com.digitalpebble.classification.util.scorers;
 
-import java.util.Iterator;
+import java.io.IOException;
 import java.util.Map;
 
-import com.digitalpebble.classification.Document;
 import com.digitalpebble.classification.Lexicon;
 import com.digitalpebble.classification.Parameters;
 import com.digitalpebble.classification.TrainingCorpus;
-import com.digitalpebble.classification.Vector;
 
 public class chiSquareAttributeScorer {
 	
 	 public static AttributeScorer getScorer(TrainingCorpus corpus, Lexicon lexicon){
-		  
-		  int numAttributes = lexicon.getAttributesNum();
+		  // get a vector based on the number of occurrences i.e on the raw document
+		  AttributeCounts counts = new AttributeCounts(lexicon);
+		  counts.add(corpus, lexicon, Parameters.WeightingMethod.OCCURRENCES);
+		  return getScorer(counts, lexicon);
+	 }
+
+	 /**
+	  * Same as getScorer(TrainingCorpus, Lexicon) but the parts of a corpus
+	  * which can be split are read on numThreads threads
+	  * **/
+	 public static AttributeScorer getScorer(TrainingCorpus corpus, Lexicon lexicon, int numThreads) throws IOException{
+		  return getScorer(AttributeCounts.count(corpus, lexicon, Parameters.WeightingMethod.OCCURRENCES, numThreads), lexicon);
+	 }
+
+	 private static AttributeScorer getScorer(AttributeCounts counts, Lexicon lexicon){
 		  
 		  AttributeScorer scorer = new AttributeScorer();
 		  
-		   // build the matrix: attributes x labels
-		
-		    double[][] matrix = new double[numAttributes][lexicon.getLabelNum()];
-		    double [] totalAttributes = new double[numAttributes];
-		    double [] totalClasses = new double[lexicon.getLabelNum()];
-		    double total = 0d;
-		   
-		    int[] attributeIDToRank = new int[lexicon.maxAttributeID()+1];
-		    java.util.Arrays.fill(attributeIDToRank, -1);
-		    
-		    int[] attributeRankToID = new int[numAttributes];
-		    java.util.Arrays.fill(attributeRankToID, -1);
-		    
-		    int latestRank = 0;
-		    
-		    // fill the matrix
-		    Iterator<Document> docIter = corpus.iterator();
-		    while(docIter.hasNext()){
-		      Document d = docIter.next();	
-		      // Vector vector = d.getFeatureVector(lexicon);
-		      // get a vector based on the number of occurrences i.e on the raw document
-		      Vector vector = d.getFeatureVector(lexicon,Parameters.WeightingMethod.OCCURRENCES);
-		      int[] indices = vector.getIndices();
-		      double[] values = vector.getValues();
-		      int classNum = d.getLabel();
-		      
-		      for (int i=0;i<indices.length;i++){
-		        int index = indices[i];
-		        double value = values[i];
-		        if (value==0) continue;	        
-		        // problem here : the index is not the same as the rank
-		        // find the rank of this attribute
-		        int rank = attributeIDToRank[index];
-		        if (rank==-1){
-		        	// not seen this one yet
-		        	rank = latestRank;
-		        	attributeIDToRank[index]= rank;
-		        	attributeRankToID[rank]=index;
-		        	latestRank++;
-		        }
-		        
-		        matrix[rank][classNum]+= value;
-		        totalAttributes[rank]+= value;
-		        totalClasses[classNum]+= value;
-		        total+=value;
-		      }
-		    }
+		    double[][] matrix = counts.matrix;
+		    double [] totalAttributes = counts.totalAttributes;
+		    double [] totalClasses = counts.totalClasses;
+		    double total = counts.total;
+		    int[] attributeRankToID = counts.attributeRankToID;
 		    
 		    Map invertedAttributeIndex = lexicon.getInvertedIndex();
 		    
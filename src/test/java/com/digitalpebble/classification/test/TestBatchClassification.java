@@ -0,0 +1,197 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import com.digitalpebble.classification.Document;
+import com.digitalpebble.classification.Parameters;
+import com.digitalpebble.classification.RAMTrainingCorpus;
+import com.digitalpebble.classification.TextClassifier;
+
+/**
+ * Classifies the documents of the corpus directory with several threads and
+ * checks that the results are the same as when classifying them sequentially.
+ * The throughput is measured by benchmarkClassification.
+ **/
+public class TestBatchClassification extends AbstractLearnerTest
+{
+
+    private static final String[] FILES = new String[]{
+            "corpus/quote.tok.gt9.5000", "corpus/plot.tok.gt9.5000"};
+
+    private static final String[] LABELS = new String[]{"subjective",
+            "objective"};
+
+    private static final int LINES_PER_FILE = 500;
+
+    // the lines of the corpus files, tokenized and lower cased
+    private static List<String[]> readLines(String file, int maxLines)
+            throws IOException
+    {
+        List<String[]> lines = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(new File(
+                file)));
+        String line;
+        while ((line = reader.readLine()) != null && lines.size() < maxLines)
+        {
+            String[] tokens = line.split("\\W");
+            for (int i = 0; i < tokens.length; i++)
+                tokens[i] = tokens[i].toLowerCase();
+            lines.add(tokens);
+        }
+        reader.close();
+        return lines;
+    }
+
+    protected TextClassifier trainClassifier() throws Exception
+    {
+        learner.setMethod(Parameters.WeightingMethod.BOOLEAN);
+        learner.setParameters("-s 0 -t 0");
+        RAMTrainingCorpus corpus = new RAMTrainingCorpus();
+        for (int f = 0; f < FILES.length; f++)
+        {
+            for (String[] tokens : readLines(FILES[f], LINES_PER_FILE))
+                corpus.add(learner.createDocument(tokens, LABELS[f]));
+        }
+        learner.learn(corpus);
+        return TextClassifier.getClassifier(tempFile);
+    }
+
+    protected Document[] getDocuments(TextClassifier classifier, int maxLines)
+            throws IOException
+    {
+        List<Document> documents = new ArrayList<Document>();
+        for (String file : FILES)
+        {
+            for (String[] tokens : readLines(file, maxLines))
+                documents.add(classifier.createDocument(tokens));
+        }
+        return documents.toArray(new Document[documents.size()]);
+    }
+
+    /**
+     * All the threads share the same classifier and create and classify all
+     * the lines of the corpus files
+     **/
+    public void testConcurrentClassification() throws Exception
+    {
+        final TextClassifier classifier = trainClassifier();
+        final List<String[]> lines = new ArrayList<String[]>();
+        for (String file : FILES)
+            lines.addAll(readLines(file, Integer.MAX_VALUE));
+        final double[][] expected = new double[lines.size()][];
+        for (int d = 0; d < expected.length; d++)
+            expected[d] = classifier.classify(classifier.createDocument(lines
+                    .get(d)));
+
+        int maxThreads = Math.max(4, Runtime.getRuntime()
+                .availableProcessors());
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2)
+        {
+            final List<Throwable> errors = Collections
+                    .synchronizedList(new ArrayList<Throwable>());
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread[] threads = new Thread[numThreads];
+            for (int t = 0; t < numThreads; t++)
+            {
+                // each thread starts at a different offset
+                final int offset = t * lines.size() / numThreads;
+                threads[t] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            start.await();
+                            for (int i = 0; i < lines.size(); i++)
+                            {
+                                int d = (offset + i) % lines.size();
+                                Document doc = classifier
+                                        .createDocument(lines.get(d));
+                                double[] scores = classifier.classify(doc);
+                                if (!Arrays.equals(expected[d], scores))
+                                    throw new AssertionError(
+                                            "Different scores for line " + d);
+                            }
+                        }
+                        catch (Throwable e)
+                        {
+                            errors.add(e);
+                        }
+                    }
+                };
+                threads[t].start();
+            }
+            start.countDown();
+            for (Thread thread : threads)
+                thread.join();
+            if (!errors.isEmpty())
+                throw new AssertionError(errors.get(0));
+        }
+    }
+
+    public void testParallelClassification() throws Exception
+    {
+        TextClassifier classifier = trainClassifier();
+        assertTrue(classifier.isThreadSafe());
+        Document[] documents = getDocuments(classifier, Integer.MAX_VALUE);
+
+        double[][] expected = classifier.classify(documents);
+        double[][] scores = classifier.classify(documents, 4);
+        assertEquals(expected.length, scores.length);
+        for (int d = 0; d < expected.length; d++)
+            assertTrue(Arrays.equals(expected[d], scores[d]));
+    }
+
+    /**
+     * A cached pool gets no more tasks than there are processors, not one
+     * per chunk of documents
+     **/
+    public void testCachedThreadPool() throws Exception
+    {
+        TextClassifier classifier = trainClassifier();
+        Document[] documents = getDocuments(classifier, Integer.MAX_VALUE);
+        double[][] expected = classifier.classify(documents);
+
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) Executors
+                .newCachedThreadPool();
+        try
+        {
+            double[][] scores = classifier.classify(documents, pool);
+            for (int d = 0; d < expected.length; d++)
+                assertTrue(Arrays.equals(expected[d], scores[d]));
+            assertTrue(pool.getLargestPoolSize() <= Runtime.getRuntime()
+                    .availableProcessors());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+}
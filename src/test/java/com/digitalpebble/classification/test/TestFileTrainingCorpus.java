@@ -0,0 +1,471 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import com.digitalpebble.classification.Document;
+import com.digitalpebble.classification.Field;
+import com.digitalpebble.classification.FileTrainingCorpus;
+import com.digitalpebble.classification.Lexicon;
+import com.digitalpebble.classification.MappedTrainingCorpus;
+import com.digitalpebble.classification.Parameters;
+import com.digitalpebble.classification.RAMTrainingCorpus;
+import com.digitalpebble.classification.SplittableTrainingCorpus;
+import com.digitalpebble.classification.TrainingCorpus;
+import com.digitalpebble.classification.libsvm.Utils;
+import com.digitalpebble.classification.util.CorpusUtils;
+import com.digitalpebble.classification.util.scorers.AttributeScorer;
+import com.digitalpebble.classification.util.scorers.chiSquareAttributeScorer;
+import com.digitalpebble.classification.util.scorers.logLikelihoodAttributeScorer;
+
+/**
+ * Checks that the raw files give back the documents they were given
+ **/
+public class TestFileTrainingCorpus extends AbstractLearnerTest
+{
+
+    private static final String[] FILES = new String[]{
+            "corpus/quote.tok.gt9.5000", "corpus/plot.tok.gt9.5000"};
+
+    private static final String[] LABELS = new String[]{"subjective",
+            "objective"};
+
+    /**
+     * The lines of the corpus files, the ones of the first file as documents
+     * with two fields and the others as simple documents
+     **/
+    private List<Document> buildDocuments() throws IOException
+    {
+        List<Document> documents = new ArrayList<Document>();
+        for (int f = 0; f < FILES.length; f++)
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(
+                    new File(FILES[f])));
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                String[] tokens = line.toLowerCase().split("\\W");
+                if (f == 1)
+                {
+                    documents.add(learner.createDocument(tokens, LABELS[f]));
+                    continue;
+                }
+                int half = tokens.length / 2;
+                String[] start = new String[half];
+                String[] end = new String[tokens.length - half];
+                System.arraycopy(tokens, 0, start, 0, half);
+                System.arraycopy(tokens, half, end, 0, end.length);
+                documents.add(learner.createDocument(new Field[]{
+                        new Field("start", start), new Field("end", end)},
+                                                     LABELS[f]));
+            }
+            reader.close();
+        }
+        return documents;
+    }
+
+    private static List<String> serialize(TrainingCorpus corpus)
+    {
+        List<String> serialized = new ArrayList<String>();
+        Iterator<Document> iterator = corpus.iterator();
+        while (iterator.hasNext())
+            serialized.add(iterator.next().getStringSerialization());
+        return serialized;
+    }
+
+    private static List<String> serialize(List<Document> documents)
+    {
+        List<String> serialized = new ArrayList<String>();
+        for (Document doc : documents)
+            serialized.add(doc.getStringSerialization());
+        return serialized;
+    }
+
+    public void testBinaryFormat() throws Exception
+    {
+        List<Document> documents = buildDocuments();
+        List<String> expected = serialize(documents);
+
+        File text = new File(tempFile, "raw.txt");
+        FileTrainingCorpus corpus = new FileTrainingCorpus(text);
+        for (Document doc : documents)
+            corpus.addDocument(doc);
+        corpus.close();
+        assertFalse(corpus.isBinary());
+
+        File binary = new File(tempFile, "raw.bin");
+        assertEquals(documents.size(), CorpusUtils.convertRawFile(text,
+                binary, true));
+        assertTrue(binary.length() < text.length());
+        corpus = new FileTrainingCorpus(binary);
+        assertTrue(corpus.isBinary());
+        assertEquals(expected, serialize(corpus));
+
+        // an existing file is appended to in its own format
+        corpus.addDocument(documents.get(0));
+        corpus.close();
+        expected.add(expected.get(0));
+        corpus = new FileTrainingCorpus(binary, false);
+        assertTrue(corpus.isBinary());
+        corpus.close();
+        assertEquals(expected, serialize(corpus));
+
+        // and back to text
+        File text2 = new File(tempFile, "raw2.txt");
+        CorpusUtils.convertRawFile(binary, text2, false);
+        corpus = new FileTrainingCorpus(text2);
+        corpus.close();
+        assertFalse(corpus.isBinary());
+        assertEquals(expected, serialize(corpus));
+
+        // a truncated record is reported
+        RandomAccessFile truncated = new RandomAccessFile(binary, "rw");
+        truncated.setLength(binary.length() - 1);
+        truncated.close();
+        try
+        {
+            new FileTrainingCorpus(binary);
+            fail("Truncated file not detected");
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
+    public void testCompressedFormat() throws Exception
+    {
+        List<Document> documents = buildDocuments();
+        List<String> expected = serialize(documents);
+
+        File raw = new File(tempFile, "raw.z");
+        File index = new File(raw.getPath() + FileTrainingCorpus.INDEX_SUFFIX);
+        FileTrainingCorpus corpus = new FileTrainingCorpus(raw,
+                FileTrainingCorpus.Format.COMPRESSED);
+        int half = documents.size() / 2;
+        for (int d = 0; d < half; d++)
+            corpus.addDocument(documents.get(d));
+        // the pending block is written when the corpus is mapped
+        assertEquals(expected.subList(0, half), serialize(corpus.map()));
+        for (int d = half; d < documents.size() - 1; d++)
+            corpus.addDocument(documents.get(d));
+        corpus.close();
+
+        // an existing file is appended to in its own format
+        corpus = new FileTrainingCorpus(raw);
+        assertEquals(FileTrainingCorpus.Format.COMPRESSED, corpus.getFormat());
+        assertTrue(corpus.isBinary());
+        corpus.addDocument(documents.get(documents.size() - 1));
+        corpus.close();
+        assertEquals(documents.size(), corpus.getNumDocuments());
+        assertEquals(expected, serialize(corpus));
+
+        MappedTrainingCorpus mapped = corpus.map();
+        assertEquals(expected, serialize(mapped));
+        Random random = new Random(0);
+        for (int i = 0; i < 1000; i++)
+        {
+            int d = random.nextInt(expected.size());
+            assertEquals(expected.get(d), mapped.get(d)
+                    .getStringSerialization());
+        }
+        assertEquals(expected.subList(110, 120), serialize(mapped.range(100,
+                200).range(10, 20)));
+
+        // the blocks are decoded independently
+        for (int numSplits : new int[]{2, 8})
+        {
+            List<String> serialized = new ArrayList<String>();
+            for (TrainingCorpus part : corpus.split(numSplits))
+                serialized.addAll(serialize(part));
+            assertEquals(expected, serialized);
+        }
+
+        // the index is rebuilt from the blocks
+        long length = index.length();
+        assertTrue(index.delete());
+        corpus = new FileTrainingCorpus(raw);
+        corpus.close();
+        assertEquals(documents.size(), corpus.getNumDocuments());
+        assertEquals(length, index.length());
+        assertEquals(expected, serialize(corpus.map()));
+
+        // conversions from and to the other formats
+        File text = new File(tempFile, "raw.txt");
+        File binary = new File(tempFile, "raw.bin");
+        File compressed = new File(tempFile, "raw2.z");
+        CorpusUtils.convertRawFile(raw, text, FileTrainingCorpus.Format.TEXT);
+        CorpusUtils.convertRawFile(text, binary,
+                                   FileTrainingCorpus.Format.BINARY);
+        assertEquals(documents.size(), CorpusUtils.convertRawFile(binary,
+                compressed, FileTrainingCorpus.Format.COMPRESSED));
+        assertTrue(compressed.length() < binary.length());
+        corpus = new FileTrainingCorpus(compressed);
+        corpus.close();
+        assertEquals(expected, serialize(corpus));
+
+        // a truncated block is reported
+        RandomAccessFile truncated = new RandomAccessFile(raw, "rw");
+        truncated.setLength(raw.length() - 1);
+        truncated.close();
+        try
+        {
+            new FileTrainingCorpus(raw);
+            fail("Truncated file not detected");
+        }
+        catch (IOException e)
+        {
+        }
+    }
+
+    public void testMappedCorpus() throws Exception
+    {
+        List<Document> documents = buildDocuments();
+        List<String> expected = serialize(documents);
+        for (boolean binary : new boolean[]{false, true})
+        {
+            File raw = new File(tempFile, binary ? "raw.bin" : "raw.txt");
+            FileTrainingCorpus corpus = new FileTrainingCorpus(raw, binary);
+            int half = documents.size() / 2;
+            for (int d = 0; d < half; d++)
+                corpus.addDocument(documents.get(d));
+            // the documents added so far can be mapped
+            MappedTrainingCorpus mapped = corpus.map();
+            assertEquals(half, mapped.size());
+            assertEquals(expected.subList(0, half), serialize(mapped));
+            for (int d = half; d < documents.size(); d++)
+                corpus.addDocument(documents.get(d));
+            corpus.close();
+            assertEquals(documents.size(), corpus.getNumDocuments());
+
+            mapped = corpus.map();
+            assertEquals(expected.size(), mapped.size());
+            Random random = new Random(0);
+            for (int i = 0; i < 1000; i++)
+            {
+                int d = random.nextInt(expected.size());
+                assertEquals(expected.get(d), mapped.get(d)
+                        .getStringSerialization());
+            }
+            MappedTrainingCorpus range = mapped.range(100, 200).range(10, 20);
+            assertEquals(10, range.size());
+            assertEquals(expected.subList(110, 120), serialize(range));
+            try
+            {
+                range.get(10);
+                fail("Document out of the range");
+            }
+            catch (IndexOutOfBoundsException e)
+            {
+            }
+
+            // the index is rebuilt when an existing file is opened
+            assertTrue(new File(raw.getPath()
+                    + FileTrainingCorpus.INDEX_SUFFIX).delete());
+            corpus = new FileTrainingCorpus(raw);
+            corpus.close();
+            assertEquals(binary, corpus.isBinary());
+            assertEquals(expected, serialize(corpus.map()));
+        }
+    }
+
+    public void testReopenCorpus() throws Exception
+    {
+        List<Document> documents = buildDocuments();
+        List<String> expected = serialize(documents);
+        for (boolean binary : new boolean[]{false, true})
+        {
+            File raw = new File(tempFile, binary ? "raw.bin" : "raw.txt");
+            File index = new File(raw.getPath()
+                    + FileTrainingCorpus.INDEX_SUFFIX);
+            FileTrainingCorpus corpus = new FileTrainingCorpus(raw, binary);
+            for (int d = 0; d < documents.size() - 1; d++)
+                corpus.addDocument(documents.get(d));
+            corpus.close();
+
+            // the documents are not read when the corpus has been closed
+            // properly : a change in the middle of the file goes unnoticed
+            RandomAccessFile file = new RandomAccessFile(raw, "rw");
+            long middle = file.length() / 2;
+            file.seek(middle);
+            byte original = file.readByte();
+            file.seek(middle);
+            file.writeByte(binary ? 0xFF : '\t');
+            file.close();
+            corpus = new FileTrainingCorpus(raw);
+            assertEquals(documents.size() - 1, corpus.getNumDocuments());
+            corpus.close();
+            file = new RandomAccessFile(raw, "rw");
+            file.seek(middle);
+            file.writeByte(original);
+            file.close();
+
+            // documents can be appended after a fast open
+            corpus = new FileTrainingCorpus(raw);
+            corpus.addDocument(documents.get(documents.size() - 1));
+            corpus.close();
+            assertEquals(expected, serialize(corpus.map()));
+
+            // the documents are indexed again if the index has no trailer
+            // e.g. if the corpus was not closed
+            long length = index.length();
+            file = new RandomAccessFile(index, "rw");
+            file.setLength(8l * documents.size());
+            file.close();
+            corpus = new FileTrainingCorpus(raw);
+            corpus.close();
+            assertEquals(documents.size(), corpus.getNumDocuments());
+            assertEquals(length, index.length());
+            assertEquals(expected, serialize(corpus.map()));
+
+            // or if the raw file has been modified by something else
+            if (binary)
+            {
+                file = new RandomAccessFile(raw, "rw");
+                file.setLength(file.length() - 1);
+                file.close();
+                try
+                {
+                    new FileTrainingCorpus(raw);
+                    fail("Truncated file not detected");
+                }
+                catch (IOException e)
+                {
+                }
+                continue;
+            }
+            FileWriter writer = new FileWriter(raw, true);
+            writer.write(expected.get(0));
+            writer.close();
+            corpus = new FileTrainingCorpus(raw);
+            corpus.close();
+            assertEquals(documents.size() + 1, corpus.getNumDocuments());
+        }
+    }
+
+    private static String readFile(File file) throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null)
+            content.append(line).append('\n');
+        reader.close();
+        return content.toString();
+    }
+
+    public void testParallelPasses() throws Exception
+    {
+        List<Document> documents = buildDocuments();
+        List<String> expected = serialize(documents);
+        RAMTrainingCorpus ram = new RAMTrainingCorpus();
+        ram.addAll(documents);
+        File raw = new File(tempFile, "raw.bin");
+        FileTrainingCorpus corpus = new FileTrainingCorpus(raw, true);
+        for (Document doc : documents)
+            corpus.addDocument(doc);
+        corpus.close();
+
+        // the parts follow the order of the documents
+        for (SplittableTrainingCorpus splittable : new SplittableTrainingCorpus[]{
+                ram, corpus})
+        {
+            for (int numSplits : new int[]{1, 3, 8})
+            {
+                List<TrainingCorpus> parts = splittable.split(numSplits);
+                assertTrue(parts.size() <= numSplits);
+                List<String> serialized = new ArrayList<String>();
+                for (TrainingCorpus part : parts)
+                {
+                    List<String> partContent = serialize(part);
+                    assertFalse(partContent.isEmpty());
+                    serialized.addAll(partContent);
+                }
+                assertEquals(expected, serialized);
+            }
+        }
+        List<TrainingCorpus> parts = corpus.split(4);
+        assertEquals(4, parts.size());
+
+        // same vectors and scores whatever the number of threads
+        Lexicon lexicon = learner.getLexicon();
+        File sequential = new File(tempFile, "vectors.seq");
+        File parallel = new File(tempFile, "vectors.par");
+        Utils.writeVectors(corpus, lexicon, true, sequential.getPath(),
+                           (int[]) null);
+        Utils.writeVectors(corpus, lexicon, true, parallel.getPath(), null, 4);
+        assertEquals(readFile(sequential), readFile(parallel));
+        assertEquals(1, tempFile.listFiles(new FilenameFilter()
+        {
+            public boolean accept(File dir, String name)
+            {
+                return name.startsWith("vectors.par");
+            }
+        }).length);
+
+        // the scorers print the score of each attribute
+        PrintStream out = System.out;
+        try
+        {
+            System.setOut(new PrintStream(new ByteArrayOutputStream()));
+            AttributeScorer expectedScores = chiSquareAttributeScorer
+                    .getScorer(corpus, lexicon);
+            AttributeScorer scores = chiSquareAttributeScorer.getScorer(
+                    corpus, lexicon, 4);
+            for (int id = 0; id <= lexicon.maxAttributeID(); id++)
+                assertEquals(expectedScores.getScore(id), scores.getScore(id));
+            // the weights are summed in a different order
+            expectedScores = logLikelihoodAttributeScorer.getScorer(corpus,
+                                                                    lexicon);
+            scores = logLikelihoodAttributeScorer.getScorer(corpus, lexicon, 4);
+            for (int id = 0; id <= lexicon.maxAttributeID(); id++)
+                assertEquals(expectedScores.getScore(id), scores.getScore(id),
+                             1e-9 * Math.abs(expectedScores.getScore(id)));
+        }
+        finally
+        {
+            System.setOut(out);
+        }
+    }
+
+    public void testLearnFromBinaryRawFile() throws Exception
+    {
+        learner.setBinaryRawFile(true);
+        FileTrainingCorpus corpus = learner.getFileTrainingCorpus();
+        List<Document> documents = buildDocuments();
+        // keeps the training short
+        for (int d = 0; d < documents.size(); d += 10)
+            corpus.addDocument(documents.get(d));
+        corpus.close();
+        assertTrue(corpus.isBinary());
+        learner.learn(corpus);
+        assertTrue(new File(tempFile, Parameters.modelName).exists());
+    }
+
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.digitalpebble.classification.Field;
+import com.digitalpebble.classification.Lexicon;
+import com.digitalpebble.classification.Parameters;
+import com.digitalpebble.classification.RAMTrainingCorpus;
+import com.digitalpebble.classification.TextClassifier;
+import com.digitalpebble.classification.util.FrontCodedTermDictionary;
+import com.digitalpebble.classification.util.TermDictionary;
+
+/**
+ * Checks that a lexicon has the same content whatever the way it is stored
+ **/
+public class TestLexiconFormats extends AbstractLearnerTest
+{
+
+    private RAMTrainingCorpus buildCorpus()
+    {
+        learner.setMethod(Parameters.WeightingMethod.TFIDF);
+        learner.getLexicon().setMethod(Parameters.WeightingMethod.BOOLEAN,
+                                       "keywords");
+        RAMTrainingCorpus corpus = new RAMTrainingCorpus();
+        corpus.add(learner.createDocument(new Field[]{
+                new Field("title", new String[]{"large", "title"}),
+                new Field("keywords", new String[]{"big", "large"})},
+                                          "large"));
+        corpus.add(learner.createDocument(new Field[]{
+                new Field("title", new String[]{"small", "title"}),
+                new Field("keywords", new String[]{"tiny"})}, "small"));
+        corpus.add(learner.createDocument(new String[]{"a", "small", "text"},
+                                          "small"));
+        return corpus;
+    }
+
+    private void assertSameContent(Lexicon expected, Lexicon actual)
+    {
+        assertEquals(expected.getDocNum(), actual.getDocNum());
+        assertEquals(expected.getMethod(), actual.getMethod());
+        assertEquals(expected.getAttributesNum(), actual.getAttributesNum());
+        assertEquals(expected.maxAttributeID(), actual.maxAttributeID());
+        assertEquals(java.util.Arrays.asList(expected.getLabels()),
+                     java.util.Arrays.asList(actual.getLabels()));
+        assertEquals(java.util.Arrays.asList(expected.getFields()),
+                     java.util.Arrays.asList(actual.getFields()));
+        assertEquals(expected.getMethod("keywords"), actual
+                .getMethod("keywords"));
+        Map<Integer, String> inverted = expected.getInvertedIndex();
+        assertEquals(inverted, actual.getInvertedIndex());
+        for (Map.Entry<Integer, String> entry : inverted.entrySet())
+        {
+            int id = entry.getKey().intValue();
+            assertEquals(id, actual.getIndex(entry.getValue()));
+            assertEquals(expected.getDocFreq(id), actual.getDocFreq(id));
+            assertEquals(expected.getIDF(id), actual.getIDF(id));
+            assertEquals(expected.getIDF(id), actual.getIDFs()[id]);
+        }
+        assertEquals(-1, actual.getIndex("unknown_term"));
+    }
+
+    public void testBinaryLexicon() throws Exception
+    {
+        buildCorpus();
+        Lexicon lexicon = learner.getLexicon();
+        File text = new File(tempFile, "lexicon.txt");
+        File binary = new File(tempFile, "lexicon.bin");
+        lexicon.saveToFile(text.getAbsolutePath(), false);
+        assertSameContent(lexicon, new Lexicon(text.getAbsolutePath()));
+        assertSameContent(lexicon, new Lexicon(text.getAbsolutePath())
+                .freeze(true));
+
+        // the binary format does not depend on the platform encoding
+        lexicon.createIndex("été");
+        lexicon.createIndex("\uD801\uDC00");
+        lexicon.createIndex("\uFFFD");
+        lexicon.saveToFile(binary.getAbsolutePath(), true);
+        Lexicon mapped = new Lexicon(binary.getAbsolutePath());
+        assertSameContent(lexicon, mapped);
+        assertSameContent(lexicon, new Lexicon(binary.getAbsolutePath())
+                .freeze());
+
+        // a mapped lexicon can still be modified
+        int id = mapped.createIndex("new_term");
+        assertEquals(lexicon.maxAttributeID() + 1, id);
+        assertEquals(1, mapped.getDocFreq(id));
+        assertEquals(lexicon.getIndex("title_title"), mapped
+                .getIndex("title_title"));
+    }
+
+    public void testFrontCodedDictionary() throws Exception
+    {
+        // terms sharing prefixes of various lengths, some being
+        // prefixes of others
+        List<String> terms = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++)
+        {
+            terms.add("title_" + i);
+            terms.add("content_" + i + "_" + (i * 7));
+        }
+        terms.add("title_");
+        terms.add("été");
+        terms.add("\uD801\uDC00");
+        terms.add("\uFFFD");
+        int[] ids = new int[terms.size()];
+        for (int i = 0; i < ids.length; i++)
+            ids[i] = i + 1;
+        FrontCodedTermDictionary dictionary = new FrontCodedTermDictionary(
+                terms.toArray(new String[terms.size()]), ids);
+        assertEquals(terms.size(), dictionary.size());
+        for (int i = 0; i < ids.length; i++)
+            assertEquals(ids[i], dictionary.get(terms.get(i)));
+        String[] missing = new String[]{"", "a", "title", "title_1000",
+                "title_10000", "content_1_", "zzz", "content_999_6994"};
+        for (String term : missing)
+            assertEquals(term, TermDictionary.NOT_FOUND, dictionary.get(term));
+        Collections.sort(terms);
+        assertEquals(terms, Arrays.asList(dictionary.sortedKeys()));
+    }
+
+    public void testClassifyWithBinaryLexicon() throws Exception
+    {
+        RAMTrainingCorpus corpus = buildCorpus();
+        learner.learn(corpus);
+
+        TextClassifier classifier = TextClassifier.getClassifier(tempFile);
+        double[][] expected = classifier.classify(corpus);
+
+        // replace the lexicon with its binary version
+        File lexiconFile = new File(tempFile, Parameters.lexiconName);
+        new Lexicon(lexiconFile.getAbsolutePath()).saveToFile(lexiconFile
+                .getAbsolutePath(), true);
+
+        classifier = TextClassifier.getClassifier(tempFile);
+        double[][] scores = classifier.classify(corpus);
+        for (int d = 0; d < expected.length; d++)
+            assertTrue(java.util.Arrays.equals(expected[d], scores[d]));
+    }
+
+}
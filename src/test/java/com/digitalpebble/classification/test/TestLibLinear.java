@@ -0,0 +1,301 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import com.digitalpebble.classification.Document;
+import com.digitalpebble.classification.Learner;
+import com.digitalpebble.classification.Lexicon;
+import com.digitalpebble.classification.Parameters;
+import com.digitalpebble.classification.RAMTrainingCorpus;
+import com.digitalpebble.classification.TextClassifier;
+import com.digitalpebble.classification.Vector;
+import com.digitalpebble.classification.liblinear.LibLinearClassifier;
+import com.digitalpebble.classification.liblinear.LibLinearModelCreator;
+import com.digitalpebble.classification.liblinear.QuantisedModel;
+import com.digitalpebble.classification.util.ModelUtils;
+
+import de.bwaldvogel.liblinear.Feature;
+import de.bwaldvogel.liblinear.FeatureNode;
+import de.bwaldvogel.liblinear.Linear;
+import de.bwaldvogel.liblinear.Model;
+
+/**
+ * Trains liblinear models in-process and checks that the classifiers give the
+ * same results as liblinear
+ **/
+public class TestLibLinear extends AbstractLearnerTest
+{
+
+    private static final String[] FILES = new String[]{
+            "corpus/quote.tok.gt9.5000", "corpus/plot.tok.gt9.5000"};
+
+    private static final String[] LABELS = new String[]{"subjective",
+            "objective"};
+
+    private static final int LINES_PER_FILE = 500;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        learner = Learner.getLearner(tempFile.getAbsolutePath(),
+                                     Learner.LibLinearModelCreator, true);
+    }
+
+    /**
+     * The lines of the corpus files, labelled with their file or with a third
+     * label for every third line if numLabels is 3
+     **/
+    private RAMTrainingCorpus buildCorpus(int numLabels) throws IOException
+    {
+        learner.setMethod(Parameters.WeightingMethod.TFIDF);
+        RAMTrainingCorpus corpus = new RAMTrainingCorpus();
+        for (int f = 0; f < FILES.length; f++)
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(
+                    new File(FILES[f])));
+            String line;
+            for (int l = 0; l < LINES_PER_FILE
+                    && (line = reader.readLine()) != null; l++)
+            {
+                String label = numLabels == 3 && l % 3 == 0 ? "other"
+                        : LABELS[f];
+                corpus.add(learner.createDocument(line.toLowerCase().split(
+                        "\\W"), label));
+            }
+            reader.close();
+        }
+        return corpus;
+    }
+
+    private RAMTrainingCorpus buildCorpus() throws IOException
+    {
+        return buildCorpus(2);
+    }
+
+    // the features given to liblinear before LibLinearClassifier computed
+    // the scores itself
+    private static Feature[] getFeatures(Vector vector, Model model)
+    {
+        Feature[] features = new Feature[vector.size() + 1];
+        int used = 0;
+        for (int i = 0; i < vector.size(); i++)
+        {
+            if (vector.getIndices()[i] <= model.getNrFeature())
+                features[used++] = new FeatureNode(vector.getIndices()[i],
+                                                   vector.getValues()[i]);
+        }
+        if (model.getBias() >= 0)
+            features[used++] = new FeatureNode(model.getNrFeature() + 1,
+                                               model.getBias());
+        return Arrays.copyOf(features, used);
+    }
+
+    private static String readFile(File file) throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null)
+            content.append(line).append('\n');
+        reader.close();
+        return content.toString();
+    }
+
+    public void testInProcessTraining() throws Exception
+    {
+        RAMTrainingCorpus corpus = buildCorpus();
+        learner.setParameters("-s 1 -B 1");
+        learner.learn(corpus);
+
+        File model = new File(tempFile, Parameters.modelName);
+        assertTrue(model.exists());
+        // no intermediate vector file
+        assertFalse(new File(tempFile, Parameters.vectorName).exists());
+
+        TextClassifier classifier = TextClassifier.getClassifier(tempFile);
+        Model liblinearModel = Model.load(model);
+        int correct = 0;
+        for (Document doc : corpus)
+        {
+            double[] scores = classifier.classify(doc);
+            int label = (int) Linear.predict(liblinearModel, getFeatures(doc
+                    .getFeatureVector(learner.getLexicon()), liblinearModel));
+            assertEquals(1.0, scores[label]);
+            if (scores[doc.getLabel()] == 1.0)
+                correct++;
+        }
+        assertTrue(correct > 0.9 * corpus.size());
+
+        // same model when learning from the vector file
+        String inProcess = readFile(model);
+        learner.generateVectorFile(corpus);
+        assertTrue(new File(tempFile, Parameters.vectorName).exists());
+        ((LibLinearModelCreator) learner).internal_learn();
+        assertEquals(inProcess, readFile(model));
+    }
+
+    public void testRegressionModel() throws Exception
+    {
+        RAMTrainingCorpus corpus = buildCorpus(3);
+        learner.setParameters("-s 11");
+        learner.learn(corpus);
+
+        TextClassifier classifier = TextClassifier.getClassifier(tempFile);
+        Model liblinearModel = Model.load(new File(tempFile,
+                                                   Parameters.modelName));
+        for (Document doc : corpus)
+        {
+            double value = Linear.predict(liblinearModel, getFeatures(doc
+                    .getFeatureVector(learner.getLexicon()), liblinearModel));
+            // the closest label
+            int label = (int) Math.max(0, Math.min(2, Math.round(value)));
+            double[] scores = classifier.classify(doc);
+            assertEquals(3, scores.length);
+            assertEquals(1.0, scores[label]);
+        }
+        try
+        {
+            QuantisedModel.quantise(liblinearModel,
+                                    QuantisedModel.Precision.INT8);
+            fail("Regression model quantised");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+    }
+
+    public void testCrossValidation() throws Exception
+    {
+        RAMTrainingCorpus corpus = buildCorpus();
+        learner.setParameters("-s 0 -v 5 -q");
+        learner.learn(corpus);
+        assertFalse(new File(tempFile, Parameters.modelName).exists());
+        assertTrue(((LibLinearModelCreator) learner).getOutputLearner()
+                .startsWith("Cross Validation Accuracy"));
+
+        // a regression reports its error instead
+        learner.setParameters("-s 11 -v 5 -q");
+        learner.learn(buildCorpus(3));
+        String output = ((LibLinearModelCreator) learner).getOutputLearner();
+        assertTrue(output.startsWith("Cross Validation Mean squared error"));
+        assertTrue(output
+                .contains("Cross Validation Squared correlation coefficient"));
+    }
+
+    /**
+     * The decision values and probabilities computed by LibLinearClassifier
+     * are exactly the same as the ones of liblinear
+     **/
+    public void testSameScoresAsLiblinear() throws Exception
+    {
+        String[] parameters = new String[]{"-s 1", "-s 2 -B 1", "-s 0",
+                "-s 0 -B 1", "-s 4", "-s 5 -c 10"};
+        for (int numLabels = 2; numLabels <= 3; numLabels++)
+        {
+            for (String parameter : parameters)
+            {
+                // scores with LibLinearClassifier instead of the applier
+                learner = new LibLinearModelCreator(new File(tempFile,
+                        Parameters.lexiconName).getAbsolutePath(), new File(
+                        tempFile, Parameters.modelName).getAbsolutePath(),
+                        new File(tempFile, Parameters.vectorName)
+                                .getAbsolutePath())
+                {
+                    protected String getClassifierType()
+                    {
+                        return LibLinearClassifier.class.getName();
+                    }
+                };
+                RAMTrainingCorpus corpus = buildCorpus(numLabels);
+                learner.setParameters(parameter);
+                learner.learn(corpus);
+
+                TextClassifier classifier = TextClassifier
+                        .getClassifier(tempFile);
+                assertTrue(classifier instanceof LibLinearClassifier);
+                Model model = Model.load(new File(tempFile,
+                                                  Parameters.modelName));
+                for (Document doc : corpus)
+                {
+                    Feature[] features = getFeatures(doc
+                            .getFeatureVector(learner.getLexicon()), model);
+                    double[] expected = new double[model.getNrClass()];
+                    if (model.isProbabilityModel())
+                        Linear.predictProbability(model, features, expected);
+                    else
+                        Linear.predictValues(model, features, expected);
+                    assertTrue(parameter, Arrays.equals(expected, classifier
+                            .classify(doc)));
+                }
+            }
+        }
+    }
+
+    /**
+     * An L1 regularised model pruned of its zero weights gives exactly the
+     * same scores with fewer attributes
+     **/
+    public void testPrunedModel() throws Exception
+    {
+        learner = new LibLinearModelCreator(new File(tempFile,
+                Parameters.lexiconName).getAbsolutePath(), new File(tempFile,
+                Parameters.modelName).getAbsolutePath(), new File(tempFile,
+                Parameters.vectorName).getAbsolutePath())
+        {
+            protected String getClassifierType()
+            {
+                return LibLinearClassifier.class.getName();
+            }
+        };
+        RAMTrainingCorpus corpus = buildCorpus(3);
+        learner.setParameters("-s 5 -B 1");
+        learner.learn(corpus);
+
+        File pruned = new File(tempFile, "pruned");
+        pruned.mkdir();
+        int kept = ModelUtils.pruneModel(tempFile.getAbsolutePath(), pruned
+                .getAbsolutePath(), 0);
+        Model model = Model.load(new File(tempFile, Parameters.modelName));
+        Model prunedModel = Model.load(new File(pruned, Parameters.modelName));
+        assertEquals(kept, prunedModel.getNrFeature());
+        assertTrue(kept < model.getNrFeature() / 2);
+        assertEquals(kept, new Lexicon(new File(pruned,
+                Parameters.lexiconName).getAbsolutePath()).getAttributesNum());
+
+        TextClassifier classifier = TextClassifier.getClassifier(tempFile);
+        TextClassifier prunedClassifier = TextClassifier.getClassifier(pruned);
+        BufferedReader reader = new BufferedReader(new FileReader(new File(
+                FILES[0])));
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            String[] tokens = line.toLowerCase().split("\\W");
+            assertTrue(Arrays.equals(classifier.classify(classifier
+                    .createDocument(tokens)), prunedClassifier
+                    .classify(prunedClassifier.createDocument(tokens))));
+        }
+        reader.close();
+    }
+
+}
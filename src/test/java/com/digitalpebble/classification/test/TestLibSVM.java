@@ -0,0 +1,257 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+
+import com.digitalpebble.classification.Document;
+import com.digitalpebble.classification.Parameters;
+import com.digitalpebble.classification.RAMTrainingCorpus;
+import com.digitalpebble.classification.TextClassifier;
+import com.digitalpebble.classification.Vector;
+import com.digitalpebble.classification.libsvm.LibSVMModelCreator;
+
+/**
+ * Checks that a libsvm model trained on the documents of a corpus is the same
+ * as the one trained from the vector file and that LibSVMClassifier gives the
+ * same results as libsvm
+ **/
+public class TestLibSVM extends AbstractLearnerTest
+{
+
+    private static final String[] FILES = new String[]{
+            "corpus/quote.tok.gt9.5000", "corpus/plot.tok.gt9.5000"};
+
+    private static final String[] LABELS = new String[]{"subjective",
+            "objective"};
+
+    private static final int LINES_PER_FILE = 300;
+
+    /**
+     * The lines of the corpus files, labelled with their file or with a third
+     * label for every third line if numLabels is 3
+     **/
+    private RAMTrainingCorpus buildCorpus(int numLabels) throws IOException
+    {
+        learner.setMethod(Parameters.WeightingMethod.TFIDF);
+        RAMTrainingCorpus corpus = new RAMTrainingCorpus();
+        for (int f = 0; f < FILES.length; f++)
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(
+                    new File(FILES[f])));
+            String line;
+            for (int l = 0; l < LINES_PER_FILE
+                    && (line = reader.readLine()) != null; l++)
+            {
+                String label = numLabels == 3 && l % 3 == 0 ? "other"
+                        : LABELS[f];
+                corpus.add(learner.createDocument(line.toLowerCase().split(
+                        "\\W"), label));
+            }
+            reader.close();
+        }
+        return corpus;
+    }
+
+    private RAMTrainingCorpus buildCorpus() throws IOException
+    {
+        return buildCorpus(2);
+    }
+
+    private static String readFile(File file) throws IOException
+    {
+        StringBuilder content = new StringBuilder();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = reader.readLine()) != null)
+            content.append(line).append('\n');
+        reader.close();
+        return content.toString();
+    }
+
+    public void testTrainingFromCorpus() throws Exception
+    {
+        RAMTrainingCorpus corpus = buildCorpus();
+        File model = new File(tempFile, Parameters.modelName);
+        File vectors = new File(tempFile, Parameters.vectorName);
+
+        // the RBF kernel depends on the number of attributes
+        learner.setParameters("-s 0 -t 2");
+        learner.learn(corpus);
+        assertTrue(model.exists());
+        assertFalse(vectors.exists());
+        String fromCorpus = readFile(model);
+
+        learner.setWriteVectorFile(true);
+        learner.learn(corpus);
+        assertTrue(vectors.exists());
+        assertEquals(fromCorpus, readFile(model));
+
+        ((LibSVMModelCreator) learner).internal_learn();
+        assertEquals(fromCorpus, readFile(model));
+    }
+
+    /**
+     * A model with a linear kernel is collapsed into weight vectors when
+     * loaded, which must give the same labels as svm_predict
+     **/
+    public void testLinearKernel() throws Exception
+    {
+        String[] parameters = new String[]{"-s 0 -t 0", "-s 1 -t 0"};
+        for (int numLabels = 2; numLabels <= 3; numLabels++)
+        {
+            for (String parameter : parameters)
+            {
+                RAMTrainingCorpus corpus = buildCorpus(numLabels);
+                learner.setParameters(parameter);
+                learner.learn(corpus);
+                TextClassifier classifier = TextClassifier
+                        .getClassifier(tempFile);
+                svm_model model = svm.svm_load_model(new File(tempFile,
+                        Parameters.modelName).getAbsolutePath());
+
+                BufferedReader reader = new BufferedReader(new FileReader(
+                        new File(FILES[1])));
+                String line;
+                while ((line = reader.readLine()) != null)
+                {
+                    Document doc = classifier.createDocument(line
+                            .toLowerCase().split("\\W"));
+                    Vector vector = doc.getFeatureVector(learner
+                            .getLexicon());
+                    svm_node[] nodes = new svm_node[vector.size()];
+                    for (int n = 0; n < nodes.length; n++)
+                    {
+                        nodes[n] = new svm_node();
+                        nodes[n].index = vector.getIndices()[n];
+                        nodes[n].value = vector.getValues()[n];
+                    }
+                    int expected = (int) svm.svm_predict(model, nodes);
+                    assertEquals(parameter, 100d,
+                                 classifier.classify(doc)[expected]);
+                }
+                reader.close();
+            }
+        }
+    }
+
+    // the nodes given to libsvm before LibSVMClassifier reused them
+    private static svm_node[] getNodes(Vector vector)
+    {
+        svm_node[] nodes = new svm_node[vector.size()];
+        for (int n = 0; n < nodes.length; n++)
+        {
+            nodes[n] = new svm_node();
+            nodes[n].index = vector.getIndices()[n];
+            nodes[n].value = vector.getValues()[n];
+        }
+        return nodes;
+    }
+
+    /**
+     * Classifies the lines of a corpus file with LibSVMClassifier and with
+     * libsvm and checks that the results are the same. The results of the RBF
+     * kernel, computed from the norms of the support vectors, differ by
+     * rounding errors.
+     **/
+    public void testSameScoresAsLibsvm() throws Exception
+    {
+        String[] parameters = new String[]{"-s 0 -t 2", "-s 0 -t 2 -b 1",
+                "-s 0 -t 1 -d 2 -b 1", "-s 1 -t 3 -b 1"};
+        for (String parameter : parameters)
+        {
+            boolean exact = parameter.indexOf("-t 2") == -1;
+            learner.setParameters(parameter);
+            learner.learn(buildCorpus(3));
+            TextClassifier classifier = TextClassifier.getClassifier(tempFile);
+            svm_model model = svm.svm_load_model(new File(tempFile,
+                    Parameters.modelName).getAbsolutePath());
+            boolean probability = svm.svm_check_probability_model(model) == 1;
+
+            List<Document> documents = new ArrayList<Document>();
+            BufferedReader reader = new BufferedReader(new FileReader(
+                    new File(FILES[1])));
+            String line;
+            while ((line = reader.readLine()) != null)
+                documents.add(classifier.createDocument(line.toLowerCase()
+                        .split("\\W")));
+            reader.close();
+
+            for (Document doc : documents)
+            {
+                svm_node[] nodes = getNodes(doc.getFeatureVector(learner
+                        .getLexicon()));
+                double[] expected = new double[model.nr_class];
+                if (probability)
+                    svm.svm_predict_probability(model, nodes, expected);
+                else
+                    expected[(int) svm.svm_predict(model, nodes)] = 100d;
+                double[] scores = classifier.classify(doc);
+                if (exact || !probability)
+                    assertTrue(parameter, Arrays.equals(expected, scores));
+                else
+                    for (int i = 0; i < scores.length; i++)
+                        assertEquals(parameter, expected[i], scores[i], 1e-9);
+            }
+        }
+    }
+
+    /**
+     * A linear model with an attribute index too large for its weights to be
+     * collapsed is still loaded and gives the same labels as svm_predict
+     **/
+    public void testLargeAttributeIndex() throws Exception
+    {
+        learner.setParameters("-s 0 -t 0");
+        learner.learn(buildCorpus(3));
+        // add an attribute to the last support vector
+        File modelFile = new File(tempFile, Parameters.modelName);
+        String content = readFile(modelFile);
+        content = content.substring(0, content.length() - 1)
+                + " 2000000000:1\n";
+        FileWriter writer = new FileWriter(modelFile);
+        writer.write(content);
+        writer.close();
+
+        TextClassifier classifier = TextClassifier.getClassifier(tempFile);
+        svm_model model = svm.svm_load_model(modelFile.getAbsolutePath());
+        BufferedReader reader = new BufferedReader(new FileReader(new File(
+                FILES[1])));
+        String line;
+        while ((line = reader.readLine()) != null)
+        {
+            Document doc = classifier.createDocument(line.toLowerCase()
+                    .split("\\W"));
+            int expected = (int) svm.svm_predict(model, getNodes(doc
+                    .getFeatureVector(learner.getLexicon())));
+            assertEquals(100d, classifier.classify(doc)[expected]);
+        }
+        reader.close();
+    }
+
+}
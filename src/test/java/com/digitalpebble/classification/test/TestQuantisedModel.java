@@ -0,0 +1,183 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.digitalpebble.classification.Document;
+import com.digitalpebble.classification.Parameters;
+import com.digitalpebble.classification.RAMTrainingCorpus;
+import com.digitalpebble.classification.TextClassifier;
+import com.digitalpebble.classification.liblinear.LibLinearClassifier;
+import com.digitalpebble.classification.liblinear.LibLinearModelCreator;
+import com.digitalpebble.classification.liblinear.QuantisedModel;
+import com.digitalpebble.classification.util.ModelUtils;
+
+import de.bwaldvogel.liblinear.Model;
+
+/**
+ * Compares the accuracy of quantised liblinear models with the one of the
+ * full precision model. The models are trained on the first half of the
+ * corpus files and evaluated on the second half.
+ **/
+public class TestQuantisedModel extends AbstractLearnerTest
+{
+
+    private static final String[] FILES = new String[]{
+            "corpus/quote.tok.gt9.5000", "corpus/plot.tok.gt9.5000"};
+
+    private static final String[] LABELS = new String[]{"subjective",
+            "objective"};
+
+    private static final int TRAINING_LINES = 2500;
+
+    // the lines which are not used for training
+    private List<String[]> testLines;
+
+    private List<Integer> testLabels;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        super.setUp();
+        // decision values rather than the label given by the applier
+        learner = new LibLinearModelCreator(new File(tempFile,
+                Parameters.lexiconName).getAbsolutePath(), new File(tempFile,
+                Parameters.modelName).getAbsolutePath(), new File(tempFile,
+                Parameters.vectorName).getAbsolutePath())
+        {
+            protected String getClassifierType()
+            {
+                return LibLinearClassifier.class.getName();
+            }
+        };
+    }
+
+    private RAMTrainingCorpus buildCorpus() throws IOException
+    {
+        learner.setMethod(Parameters.WeightingMethod.TFIDF);
+        RAMTrainingCorpus corpus = new RAMTrainingCorpus();
+        testLines = new ArrayList<String[]>();
+        testLabels = new ArrayList<Integer>();
+        for (int f = 0; f < FILES.length; f++)
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(
+                    new File(FILES[f])));
+            String line;
+            for (int l = 0; (line = reader.readLine()) != null; l++)
+            {
+                String[] tokens = line.toLowerCase().split("\\W");
+                if (l < TRAINING_LINES)
+                {
+                    corpus.add(learner.createDocument(tokens, LABELS[f]));
+                    continue;
+                }
+                testLines.add(tokens);
+                testLabels.add(learner.getLexicon().getLabelIndex(LABELS[f]));
+            }
+            reader.close();
+        }
+        return corpus;
+    }
+
+    // the label predicted by liblinear given the scores of a document
+    private static int predict(double[] scores, Model model)
+    {
+        if (model.getNrClass() == 2 && !model.isProbabilityModel())
+            return model.getLabels()[scores[0] > 0 ? 0 : 1];
+        int best = 0;
+        for (int i = 1; i < scores.length; i++)
+            if (scores[i] > scores[best])
+                best = i;
+        return model.getLabels()[best];
+    }
+
+    private double[][] classifyTestLines() throws Exception
+    {
+        TextClassifier classifier = TextClassifier.getClassifier(tempFile);
+        Document[] documents = new Document[testLines.size()];
+        for (int d = 0; d < documents.length; d++)
+            documents[d] = classifier.createDocument(testLines.get(d));
+        return classifier.classify(documents);
+    }
+
+    private void compare(String parameters) throws Exception
+    {
+        learner.setParameters(parameters);
+        learner.learn(buildCorpus());
+        Model model = Model.load(new File(tempFile, Parameters.modelName));
+
+        double[][] expected = classifyTestLines();
+        int correct = 0;
+        for (int d = 0; d < expected.length; d++)
+            if (predict(expected[d], model) == testLabels.get(d))
+                correct++;
+
+        for (QuantisedModel.Precision precision : QuantisedModel.Precision
+                .values())
+        {
+            ModelUtils.quantiseModel(tempFile.getAbsolutePath(), precision);
+            QuantisedModel quantised = QuantisedModel.load(new File(tempFile,
+                    Parameters.quantisedModelName));
+            double[][] scores = classifyTestLines();
+            int quantisedCorrect = 0;
+            int agreements = 0;
+            for (int d = 0; d < scores.length; d++)
+            {
+                int label = predict(scores[d], model);
+                if (label == testLabels.get(d))
+                    quantisedCorrect++;
+                if (label == predict(expected[d], model))
+                    agreements++;
+            }
+            float agreement = (float) agreements / scores.length;
+            // 1 or 2 bytes per weight instead of 8
+            assertTrue(quantised.getWeightsSize() * 4 <= model
+                    .getFeatureWeights().length * 8);
+            assertTrue(agreement > (precision == QuantisedModel.Precision.INT8
+                    ? 0.98 : 0.999));
+            assertTrue(Math.abs(quantisedCorrect - correct) < 0.01 * scores
+                    .length);
+        }
+    }
+
+    public void testQuantisedAccuracy() throws Exception
+    {
+        compare("-s 1");
+        // probabilities
+        compare("-s 0");
+    }
+
+    public void testRetrainingRemovesQuantisedModel() throws Exception
+    {
+        learner.setParameters("-s 1");
+        RAMTrainingCorpus corpus = buildCorpus();
+        learner.learn(corpus);
+        ModelUtils.quantiseModel(tempFile.getAbsolutePath(),
+                                 QuantisedModel.Precision.INT8);
+        File quantised = new File(tempFile, Parameters.quantisedModelName);
+        assertTrue(quantised.exists());
+        learner.learn(corpus);
+        assertFalse(quantised.exists());
+    }
+
+}
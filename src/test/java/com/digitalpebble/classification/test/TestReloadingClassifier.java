@@ -0,0 +1,147 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import com.digitalpebble.classification.Learner;
+import com.digitalpebble.classification.Parameters;
+import com.digitalpebble.classification.RAMTrainingCorpus;
+import com.digitalpebble.classification.ReloadingClassifier;
+import com.digitalpebble.classification.TextClassifier;
+import com.digitalpebble.classification.liblinear.QuantisedModel;
+import com.digitalpebble.classification.util.ModelUtils;
+
+public class TestReloadingClassifier extends AbstractLearnerTest
+{
+
+    private void train(Learner learner, String[] labels) throws Exception
+    {
+        learner.setMethod(Parameters.WeightingMethod.BOOLEAN);
+        RAMTrainingCorpus corpus = new RAMTrainingCorpus();
+        for (String label : labels)
+        {
+            corpus.add(learner.createDocument(new String[]{label, "common"},
+                                              label));
+        }
+        learner.learn(corpus);
+    }
+
+    // makes sure that the modification is seen even if the file system
+    // has a coarse resolution
+    private void touchLexicon(long time)
+    {
+        new File(tempFile, Parameters.lexiconName).setLastModified(time);
+    }
+
+    public void testReload() throws Exception
+    {
+        train(learner, new String[]{"a", "b"});
+        touchLexicon(1000000000000l);
+        // the polling thread won't run during the test
+        ReloadingClassifier reloading = new ReloadingClassifier(tempFile, 1,
+                                                                TimeUnit.HOURS);
+        try
+        {
+            TextClassifier first = reloading.get();
+            assertEquals(Arrays.asList("a", "b"), Arrays.asList(first
+                    .getLabels()));
+            assertFalse(reloading.checkForUpdate());
+
+            // new model
+            train(Learner.getLearner(tempFile.getAbsolutePath(),
+                                     Learner.LibSVMModelCreator, true), new String[]{"x", "y",
+                    "z"});
+            touchLexicon(1000000010000l);
+            // not swapped until the lexicon is stable
+            assertFalse(reloading.checkForUpdate());
+            assertSame(first, reloading.get());
+            assertTrue(reloading.checkForUpdate());
+            TextClassifier second = reloading.get();
+            assertNotSame(first, second);
+            assertEquals(Arrays.asList("x", "y", "z"), Arrays.asList(second
+                    .getLabels()));
+            // the old classifier can still be used
+            assertEquals(2, first.classify(first.createDocument(new String[]{
+                    "a"})).length);
+            assertEquals(3, reloading.classify(new String[]{"x"}).length);
+
+            // a broken model is not swapped in
+            FileWriter writer = new FileWriter(new File(tempFile,
+                                                        Parameters.modelName));
+            writer.write("not a model\n");
+            writer.close();
+            touchLexicon(1000000020000l);
+            assertFalse(reloading.checkForUpdate());
+            assertFalse(reloading.checkForUpdate());
+            assertNotNull(reloading.getLastFailure());
+            assertFalse(reloading.checkForUpdate());
+            assertSame(second, reloading.get());
+        }
+        finally
+        {
+            reloading.close();
+        }
+    }
+
+    public void testReloadQuantisedModel() throws Exception
+    {
+        train(Learner.getLearner(tempFile.getAbsolutePath(),
+                                 Learner.LibLinearModelCreator, true), new String[]{"a", "b"});
+        ReloadingClassifier reloading = new ReloadingClassifier(tempFile, 1,
+                                                                TimeUnit.HOURS);
+        try
+        {
+            TextClassifier first = reloading.get();
+            assertFalse(reloading.checkForUpdate());
+
+            // only the quantised model is written
+            ModelUtils.quantiseModel(tempFile.getAbsolutePath(),
+                                     QuantisedModel.Precision.INT8);
+            assertFalse(reloading.checkForUpdate());
+            assertTrue(reloading.checkForUpdate());
+            assertNotSame(first, reloading.get());
+            assertFalse(reloading.checkForUpdate());
+            assertNull(reloading.getLastFailure());
+        }
+        finally
+        {
+            reloading.close();
+        }
+    }
+
+    public void testRejectZip() throws Exception
+    {
+        File zip = File.createTempFile("resources", ".zip");
+        try
+        {
+            new ReloadingClassifier(zip, 1, TimeUnit.HOURS);
+            fail("a zipped resource directory can't be watched");
+        }
+        catch (IllegalArgumentException e)
+        {
+        }
+        finally
+        {
+            zip.delete();
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import com.digitalpebble.classification.util.StringIntHashMap;
+
+/**
+ * Compares the open-addressing map with a java.util.HashMap on a random
+ * sequence of insertions and removals
+ **/
+public class TestStringIntHashMap extends TestCase
+{
+
+    public void testRandomOperations()
+    {
+        StringIntHashMap map = new StringIntHashMap();
+        Map<String, Integer> reference = new HashMap<String, Integer>();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 50000; i++)
+        {
+            String key = "term_" + random.nextInt(5000);
+            int value = random.nextInt(100000);
+            if (random.nextInt(3) == 0)
+            {
+                Integer expected = reference.remove(key);
+                int removed = map.remove(key);
+                assertEquals(expected == null ? StringIntHashMap.NOT_FOUND
+                        : expected.intValue(), removed);
+            }
+            else
+            {
+                Integer expected = reference.put(key, value);
+                int previous = map.put(key, value);
+                assertEquals(expected == null ? StringIntHashMap.NOT_FOUND
+                        : expected.intValue(), previous);
+            }
+        }
+
+        assertEquals(reference.size(), map.size());
+        for (int i = 0; i < 5000; i++)
+        {
+            String key = "term_" + i;
+            Integer expected = reference.get(key);
+            assertEquals(expected == null ? StringIntHashMap.NOT_FOUND
+                    : expected.intValue(), map.get(key));
+        }
+
+        map.trimToSize();
+        assertEquals(reference.size(), map.sortedKeys().length);
+        for (String key : map.sortedKeys())
+            assertEquals(reference.get(key).intValue(), map.get(key));
+    }
+
+    public void testClear()
+    {
+        StringIntHashMap map = new StringIntHashMap();
+        for (int i = 0; i < 10000; i++)
+            map.put("term_" + i, i);
+        map.clear();
+        assertEquals(0, map.size());
+        assertEquals(StringIntHashMap.NOT_FOUND, map.get("term_1"));
+        // the capacity shrinks after a smaller batch
+        for (int round = 0; round < 3; round++)
+        {
+            for (int i = 0; i < 100; i++)
+                assertEquals(StringIntHashMap.NOT_FOUND, map.put("term_" + i,
+                                                                 i + round));
+            assertEquals(100, map.size());
+            for (int i = 0; i < 100; i++)
+                assertEquals(i + round, map.get("term_" + i));
+            map.clear();
+            assertEquals(0, map.sortedKeys().length);
+        }
+    }
+
+}
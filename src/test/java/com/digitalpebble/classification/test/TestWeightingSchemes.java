@@ -7,6 +7,7 @@ import java.util.List;
 import java.util.Map;
 
 import com.digitalpebble.classification.Document;
+import com.digitalpebble.classification.Lexicon;
 import com.digitalpebble.classification.Parameters;
 import com.digitalpebble.classification.Parameters.WeightingMethod;
 import com.digitalpebble.classification.RAMTrainingCorpus;
@@ -184,6 +185,76 @@ public class TestWeightingSchemes extends AbstractLearnerTest
         evaluateWeightingSchemes(Parameters.WeightingMethod.TFIDF);
     }
 
+    public void testTokenCounts()
+    {
+        Document doc = learner.createDocument(new String[]{"b", "a", null,
+                "b", "", "c b", "a", "b"});
+        Lexicon lexicon = learner.getLexicon();
+        // new terms get their IDs in alphabetical order
+        int a = lexicon.getIndex("a");
+        int b = lexicon.getIndex("b");
+        int cb = lexicon.getIndex("c_b");
+        assertEquals(a + 1, b);
+        assertEquals(b + 1, cb);
+        assertEquals("SimpleDocument\t0\t6.0\t" + a + ":2\t" + b + ":3\t"
+                + cb + ":1\n", doc.getStringSerialization());
+        // doc freqs are incremented once per document
+        assertEquals(1, lexicon.getDocFreq(b));
+        learner.createDocument(new String[]{"a", "a"});
+        assertEquals(2, lexicon.getDocFreq(a));
+        assertEquals(1, lexicon.getDocFreq(cb));
+    }
+
+    @SuppressWarnings("deprecation")
+    public void testRemapTable()
+    {
+        learner.setMethod(Parameters.WeightingMethod.OCCURRENCES);
+        List<Document> documents = new ArrayList<Document>();
+        for (String[] content : docs)
+            documents.add(learner.createDocument(content));
+        Lexicon lexicon = learner.getLexicon();
+        // removes d, e and f then renumbers a, b and c
+        lexicon.pruneTermsDocFreq(2, Integer.MAX_VALUE);
+        Map<Integer, String> before = lexicon.getInvertedIndex();
+        int[] remap = lexicon.compactAttributes();
+        Map<Integer, String> after = lexicon.getInvertedIndex();
+        assertEquals(3, after.size());
+        Map<Integer, Integer> equiv = new java.util.HashMap<Integer, Integer>();
+        for (int i = 0; i < remap.length; i++)
+            if (remap[i] >= 0)
+                equiv.put(i, remap[i]);
+
+        Vector buffer = new Vector();
+        for (int d = 0; d < docs.length; d++)
+        {
+            Document doc = documents.get(d);
+            String serialization = doc.getStringSerialization();
+            // the same vector every time and the document is not modified
+            for (int pass = 0; pass < 2; pass++)
+            {
+                buffer = doc.getFeatureVector(lexicon, remap, buffer);
+                assertEquals(3, buffer.size());
+                for (int i = 0; i < buffer.size(); i++)
+                {
+                    String term = after.get(buffer.getIndices()[i]);
+                    assertTrue(before.containsValue(term));
+                    double expected = 0;
+                    for (String token : docs[d])
+                        if (token.equals(term))
+                            expected++;
+                    assertEquals(expected, buffer.getValues()[i]);
+                }
+                assertEquals(serialization, doc.getStringSerialization());
+            }
+            // same vector with the mapping looked up attribute by attribute
+            Vector vector = doc.getFeatureVector(lexicon, equiv);
+            assertTrue(java.util.Arrays.equals(java.util.Arrays.copyOf(buffer
+                    .getIndices(), buffer.size()), vector.getIndices()));
+            assertTrue(java.util.Arrays.equals(java.util.Arrays.copyOf(buffer
+                    .getValues(), buffer.size()), vector.getValues()));
+        }
+    }
+
     private void evaluateWeightingSchemes(WeightingMethod method)
     {
 
@@ -209,6 +280,7 @@ public class TestWeightingSchemes extends AbstractLearnerTest
 
         assertEquals(expectedset.size(), corpus.size());
 
+        Vector buffer = new Vector();
         for (Map<String, Double> ref : expectedset)
         {
             Document doc = corpusIter.next();
@@ -228,6 +300,15 @@ public class TestWeightingSchemes extends AbstractLearnerTest
                 double expected = ref.get(label);
                 assertEquals("label: " + label, expected, values[i]);
             }
+
+            // same content when reusing a buffer
+            buffer = doc.getFeatureVector(learner.getLexicon(), buffer);
+            assertEquals(indices.length, buffer.size());
+            for (int i = 0; i < indices.length; i++)
+            {
+                assertEquals(indices[i], buffer.getIndices()[i]);
+                assertEquals(values[i], buffer.getValues()[i]);
+            }
         }
     }
 
@@ -0,0 +1,197 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import libsvm.svm;
+import libsvm.svm_model;
+import libsvm.svm_node;
+
+import com.digitalpebble.classification.Document;
+import com.digitalpebble.classification.Parameters;
+import com.digitalpebble.classification.RAMTrainingCorpus;
+import com.digitalpebble.classification.TextClassifier;
+import com.digitalpebble.classification.Vector;
+
+/**
+ * Prints the number of documents classified per second on the lines of the
+ * corpus directory. Not part of the test suite, run it with main().
+ **/
+public class benchmarkClassification extends AbstractLearnerTest
+{
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(benchmarkClassification.class);
+    }
+
+    private static final String[] FILES = new String[]{
+            "corpus/quote.tok.gt9.5000", "corpus/plot.tok.gt9.5000"};
+
+    private static final String[] LABELS = new String[]{"subjective",
+            "objective"};
+
+    // the lines of a corpus file, tokenized and lower cased
+    private static List<String[]> readLines(String file, int maxLines)
+            throws IOException
+    {
+        List<String[]> lines = new ArrayList<String[]>();
+        BufferedReader reader = new BufferedReader(new FileReader(new File(
+                file)));
+        String line;
+        while ((line = reader.readLine()) != null && lines.size() < maxLines)
+            lines.add(line.toLowerCase().split("\\W"));
+        reader.close();
+        return lines;
+    }
+
+    private static String docsPerSecond(long docs, long nanos)
+    {
+        return (long) (docs * 1e9 / Math.max(1, nanos)) + " docs/sec";
+    }
+
+    /**
+     * Documents created and classified by several threads sharing the same
+     * classifier
+     **/
+    public void testThreads() throws Exception
+    {
+        learner.setMethod(Parameters.WeightingMethod.BOOLEAN);
+        learner.setParameters("-s 0 -t 0");
+        RAMTrainingCorpus corpus = new RAMTrainingCorpus();
+        for (int f = 0; f < FILES.length; f++)
+        {
+            for (String[] tokens : readLines(FILES[f], 500))
+                corpus.add(learner.createDocument(tokens, LABELS[f]));
+        }
+        learner.learn(corpus);
+        final TextClassifier classifier = TextClassifier
+                .getClassifier(tempFile);
+        final List<String[]> lines = new ArrayList<String[]>();
+        for (String file : FILES)
+            lines.addAll(readLines(file, Integer.MAX_VALUE));
+
+        int maxThreads = Math.max(4, Runtime.getRuntime()
+                .availableProcessors());
+        // the first round is not measured, the code is being compiled
+        for (int numThreads = 1; numThreads <= maxThreads; numThreads *= 2)
+        {
+            for (int round = 0; round < 2; round++)
+            {
+                Thread[] threads = new Thread[numThreads];
+                for (int t = 0; t < numThreads; t++)
+                {
+                    threads[t] = new Thread()
+                    {
+                        public void run()
+                        {
+                            try
+                            {
+                                for (String[] tokens : lines)
+                                    classifier.classify(classifier
+                                            .createDocument(tokens));
+                            }
+                            catch (Exception e)
+                            {
+                                throw new RuntimeException(e);
+                            }
+                        }
+                    };
+                }
+                long start = System.nanoTime();
+                for (Thread thread : threads)
+                    thread.start();
+                for (Thread thread : threads)
+                    thread.join();
+                long time = System.nanoTime() - start;
+                if (round == 1)
+                    System.out.println(numThreads + " thread(s) : "
+                            + docsPerSecond((long) numThreads * lines.size(),
+                                            time));
+            }
+        }
+    }
+
+    /**
+     * LibSVMClassifier compared with svm_predict on the same documents, for
+     * several kernels
+     **/
+    public void testLibSVM() throws Exception
+    {
+        String[] parameters = new String[]{"-s 0 -t 0", "-s 0 -t 2",
+                "-s 0 -t 2 -b 1", "-s 0 -t 1 -d 2 -b 1", "-s 1 -t 3 -b 1"};
+        learner.setMethod(Parameters.WeightingMethod.TFIDF);
+        RAMTrainingCorpus corpus = new RAMTrainingCorpus();
+        for (int f = 0; f < FILES.length; f++)
+        {
+            for (String[] tokens : readLines(FILES[f], 300))
+                corpus.add(learner.createDocument(tokens, LABELS[f]));
+        }
+        for (String parameter : parameters)
+        {
+            learner.setParameters(parameter);
+            learner.learn(corpus);
+            TextClassifier classifier = TextClassifier.getClassifier(tempFile);
+            svm_model model = svm.svm_load_model(new File(tempFile,
+                    Parameters.modelName).getAbsolutePath());
+            boolean probability = svm.svm_check_probability_model(model) == 1;
+            List<Document> documents = new ArrayList<Document>();
+            for (String[] tokens : readLines(FILES[1], Integer.MAX_VALUE))
+                documents.add(classifier.createDocument(tokens));
+
+            // the first round is not measured, the code is being compiled
+            for (int round = 0; round < 2; round++)
+            {
+                long start = System.nanoTime();
+                for (Document doc : documents)
+                {
+                    Vector vector = doc.getFeatureVector(learner.getLexicon());
+                    svm_node[] nodes = new svm_node[vector.size()];
+                    for (int n = 0; n < nodes.length; n++)
+                    {
+                        nodes[n] = new svm_node();
+                        nodes[n].index = vector.getIndices()[n];
+                        nodes[n].value = vector.getValues()[n];
+                    }
+                    if (probability)
+                        svm.svm_predict_probability(model, nodes,
+                                                    new double[model.nr_class]);
+                    else
+                        svm.svm_predict(model, nodes);
+                }
+                long libsvm = System.nanoTime() - start;
+
+                start = System.nanoTime();
+                for (Document doc : documents)
+                    classifier.classify(doc);
+                long classifierTime = System.nanoTime() - start;
+                if (round == 1)
+                    System.out.println("libsvm " + parameter + " : "
+                            + docsPerSecond(documents.size(), libsvm)
+                            + " with libsvm, "
+                            + docsPerSecond(documents.size(), classifierTime)
+                            + " with LibSVMClassifier");
+            }
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2009 DigitalPebble Ltd
+ * <p/>
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ * <p/>
+ * http://www.apache.org/licenses/LICENSE-2.0
+ * <p/>
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.digitalpebble.classification.test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.Iterator;
+
+import com.digitalpebble.classification.Document;
+import com.digitalpebble.classification.FileTrainingCorpus;
+import com.digitalpebble.classification.util.CorpusUtils;
+
+/**
+ * Prints the size of the raw file of the corpus directory and the time taken
+ * to read all its documents in each format. Not part of the test suite, run
+ * it with main().
+ **/
+public class benchmarkRawFiles extends AbstractLearnerTest
+{
+    public static void main(String[] args)
+    {
+        junit.textui.TestRunner.run(benchmarkRawFiles.class);
+    }
+
+    private static final String[] FILES = new String[]{
+            "corpus/quote.tok.gt9.5000", "corpus/plot.tok.gt9.5000"};
+
+    private static final String[] LABELS = new String[]{"subjective",
+            "objective"};
+
+    public void testReading() throws Exception
+    {
+        File text = new File(tempFile, "raw.txt");
+        FileTrainingCorpus corpus = new FileTrainingCorpus(text);
+        for (int f = 0; f < FILES.length; f++)
+        {
+            BufferedReader reader = new BufferedReader(new FileReader(
+                    new File(FILES[f])));
+            String line;
+            while ((line = reader.readLine()) != null)
+                corpus.addDocument(learner.createDocument(line.toLowerCase()
+                        .split("\\W"), LABELS[f]));
+            reader.close();
+        }
+        corpus.close();
+        FileTrainingCorpus.Format[] formats = FileTrainingCorpus.Format
+                .values();
+        File[] files = new File[formats.length];
+        for (int f = 0; f < formats.length; f++)
+        {
+            files[f] = new File(tempFile, "raw." + formats[f]);
+            CorpusUtils.convertRawFile(text, files[f], formats[f]);
+        }
+
+        // the first round is not measured, the code is being compiled
+        for (int round = 0; round < 2; round++)
+        {
+            for (File file : files)
+            {
+                FileTrainingCorpus raw = new FileTrainingCorpus(file);
+                long start = System.nanoTime();
+                int numDocuments = 0;
+                Iterator<Document> iterator = raw.iterator();
+                while (iterator.hasNext())
+                {
+                    iterator.next();
+                    numDocuments++;
+                }
+                long time = System.nanoTime() - start;
+                raw.close();
+                if (round == 1)
+                    System.out.println(raw.getFormat() + " : " + file.length() / 1024 + " KB, "
+                            + numDocuments + " documents read in " + time
+                            / 1000000 + " ms");
+            }
+        }
+    }
+
+}